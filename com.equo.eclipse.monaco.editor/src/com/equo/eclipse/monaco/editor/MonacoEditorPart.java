@@ -29,6 +29,11 @@ import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.eclipse.core.filebuffers.FileBuffers;
@@ -48,6 +53,7 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
@@ -86,7 +92,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.equo.eclipse.monaco.lsp.EclipseLspProxy;
+import com.equo.monaco.ChangeDeliveryPolicy;
+import com.equo.monaco.DispatchedContentListener;
+import com.equo.monaco.EditorContentChange;
+import com.equo.monaco.EditorContentListener;
 import com.equo.monaco.EquoMonacoEditor;
+import com.equo.monaco.UiRunnableCoalescer;
 import com.equo.monaco.lsp.LspProxy;
 import com.equo.server.api.IEquoServer;
 
@@ -100,6 +111,19 @@ public class MonacoEditorPart extends AbstractTextEditor {
 
   protected static final Logger logger = LoggerFactory.getLogger(MonacoEditorPart.class);
 
+  /**
+   * Milliseconds that the editor changes are held before being pushed into the
+   * file buffer, and maximum milliseconds that a change is held.
+   */
+  private static final long DOCUMENT_SYNC_DELAY = 200;
+  private static final long DOCUMENT_SYNC_MAX_DELAY = 1000;
+
+  /**
+   * Maximum milliseconds that a language server request waits for the editor
+   * changes it depends on.
+   */
+  private static final long DOCUMENT_SYNC_TIMEOUT = 500;
+
   @Reference
   private EquoMonacoEditorWidgetBuilder monacoBuilder;
 
@@ -109,6 +133,7 @@ public class MonacoEditorPart extends AbstractTextEditor {
   private IDocumentProvider documentProvider;
 
   private ISelectionProvider selectionProvider = new MonacoEditorSelectionProvider();
+  private final UiRunnableCoalescer uiUpdates = new UiRunnableCoalescer();
 
   private EditorAction undoAction;
   private EditorAction redoAction;
@@ -123,10 +148,15 @@ public class MonacoEditorPart extends AbstractTextEditor {
   private IDocument ownDocument = null;
 
   private ITextFileBuffer fileBuffer;
-  private boolean reload = true;
+  private volatile boolean reload = true;
+  private DispatchedContentListener contentSubscription = null;
+  private final Queue<Runnable> documentUpdates = new ConcurrentLinkedQueue<>();
+  // Identifies the last language server attach, the previous ones are stale
+  private final AtomicInteger lspAttachGeneration = new AtomicInteger();
 
   @Override
   public void doSave(IProgressMonitor monitor) {
+    flushDocumentUpdates();
     String editorContents = editor.getContentsSync();
     IEditorInput input = getEditorInput();
     if (input instanceof FileEditorInput) {
@@ -266,7 +296,6 @@ public class MonacoEditorPart extends AbstractTextEditor {
                 FileEditorInput newInput = new FileEditorInput(file);
                 setInputOnEditorPart(newInput);
                 initializeNewInput(newInput);
-                LspProxy lspProxy = getLspProxy(file);
                 try (InputStream contents = file.getContents()) {
                   int singleByte;
                   ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -275,13 +304,15 @@ public class MonacoEditorPart extends AbstractTextEditor {
                   }
                   String textContent = new String(baos.toByteArray());
                   if (fileBuffer != null) {
+                    flushDocumentUpdates();
                     String textContentFileBuffer = ownDocument.get();
                     if (!textContentFileBuffer.equals(textContent)) {
                       textContent = textContentFileBuffer;
                     }
                   }
                   editor.reInitialize(textContent, newInput.getPath().toString(), getRootPath(file),
-                      lspProxy);
+                      null);
+                  attachLspProxy(file);
                 } catch (IOException | CoreException e) {
                   logger.error("Couldn't read file content", e);
                 }
@@ -303,7 +334,6 @@ public class MonacoEditorPart extends AbstractTextEditor {
       setTitleToolTip(fileInput.getPath().toString());
       IFile file = fileInput.getFile();
       initializeNewInput(input);
-      LspProxy lspProxy = getLspProxy(file);
 
       try (InputStream contents = file.getContents()) {
         int singleByte;
@@ -331,8 +361,9 @@ public class MonacoEditorPart extends AbstractTextEditor {
 
           EquoMonacoEditorWidgetBuilder builder = bndContext.getService(svcReference);
           editor = builder.withParent(parent).withStyle(parent.getStyle()).withContents(textContent)
-              .withFilePath(fileInput.getURI().toString()).withLsp(lspProxy)
-              .withRootPath(getRootPath(file)).create();
+              .withFilePath(fileInput.getURI().toString()).withRootPath(getRootPath(file))
+              .create();
+          attachLspProxy(file);
           documentProvider = new MonacoEditorDocumentProvider(editor);
           editorConfigs();
           if (setContentDirty) {
@@ -372,6 +403,10 @@ public class MonacoEditorPart extends AbstractTextEditor {
     };
     document.addDocumentListener(ownDocumentListener);
     ownDocument = document;
+    if (editor != null) {
+      // The changes of the editor must be applied to the contents it has
+      editor.requestContentResync();
+    }
   }
 
   private void registerFileBufferListener(IFile file) {
@@ -412,6 +447,8 @@ public class MonacoEditorPart extends AbstractTextEditor {
         if (file.getLocation().toPortableString()
             .endsWith(buffer.getLocation().toPortableString())) {
           if (reload) {
+            // The held editor changes must not be lost when the editor is updated
+            flushDocumentUpdates();
             editor.setContent(ownDocument.get(), true);
           }
         }
@@ -446,14 +483,31 @@ public class MonacoEditorPart extends AbstractTextEditor {
     }
   }
 
+  /**
+   * Looks for the language server of the file in background, so opening the
+   * editor does not wait for it, and attaches it to the editor once found.
+   */
+  private void attachLspProxy(IFile file) {
+    EquoMonacoEditor currentEditor = editor;
+    int generation = lspAttachGeneration.incrementAndGet();
+    CompletableFuture.supplyAsync(() -> getLspProxy(file)).thenAccept(lspProxy -> {
+      // The input changed or the editor was closed meanwhile
+      if (lspProxy != null && generation == lspAttachGeneration.get()) {
+        currentEditor.attachLspProxy(lspProxy, true);
+      }
+    }).exceptionally(e -> {
+      logger.error("Error attaching the language server", e);
+      return null;
+    });
+  }
+
   private LspProxy getLspProxy(IFile file) {
     try {
       Collection<LanguageServerWrapper> wrappers =
           LanguageServiceAccessor.getLSWrappers(file, null);
       if (!wrappers.isEmpty()) {
         LanguageServerWrapper lspServer = wrappers.iterator().next();
-        lspServer.getInitializedServer();
-        return new EclipseLspProxy(lspServer);
+        return new EclipseLspProxy(lspServer, this::syncDocument);
       }
     } catch (IOException e) {
       logger.error("Error obtaining language servers", e);
@@ -461,33 +515,114 @@ public class MonacoEditorPart extends AbstractTextEditor {
     return null;
   }
 
+  /**
+   * Queues an update of the document with the editor changes. The document is
+   * only changed from the UI thread, in the order the updates are queued.
+   */
+  private void updateDocument(Runnable update) {
+    documentUpdates.add(update);
+    Display.getDefault().asyncExec(this::applyDocumentUpdates);
+  }
+
+  private void applyDocumentUpdates() {
+    Runnable update;
+    while ((update = documentUpdates.poll()) != null) {
+      update.run();
+    }
+  }
+
+  /**
+   * Pushes the editor changes still held or queued into the document, so it
+   * has the contents of the editor.
+   */
+  private void flushDocumentUpdates() {
+    if (Display.getCurrent() == null) {
+      Display.getDefault().syncExec(this::flushDocumentUpdates);
+      return;
+    }
+    if (contentSubscription != null) {
+      contentSubscription.flush();
+    }
+    applyDocumentUpdates();
+  }
+
+  /**
+   * Pushes the editor contents up to the given version into the document,
+   * from where lsp4e sends them to the language server. Called before the
+   * requests of the editor about its document.
+   */
+  private void syncDocument(String uri, int version) {
+    EquoMonacoEditor currentEditor = editor;
+    if (currentEditor == null) {
+      return;
+    }
+    if (!currentEditor.awaitContentsVersion(version, DOCUMENT_SYNC_TIMEOUT)) {
+      logger.debug("The changes of " + uri + " up to version " + version
+          + " were not received in time");
+    }
+    flushDocumentUpdates();
+  }
+
   private void editorConfigs() {
     Consumer<Boolean> dirtyListener = isDirty -> {
       this.isDirty = isDirty;
-      Display.getDefault().asyncExec(() -> {
+      uiUpdates.post("dirty", () -> {
         firePropertyChange(PROP_DIRTY);
       });
     };
 
     Consumer<Boolean> redoListener = canRedo -> {
-      redoAction.setEnabled(canRedo);
+      uiUpdates.post("redo", canRedo, enabled -> redoAction.setEnabled(enabled));
     };
     Consumer<Boolean> undoListener = canUndo -> {
-      undoAction.setEnabled(canUndo);
+      uiUpdates.post("undo", canUndo, enabled -> undoAction.setEnabled(enabled));
     };
-    Consumer<String> contentChangeListener = content -> {
-      if (ownDocument != null) {
-        reload = false;
-        ownDocument.set(content);
-        reload = true;
+    final EditorContentListener contentListener = new EditorContentListener() {
+      @Override
+      public void contentChanged(int versionId, List<EditorContentChange> changes) {
+        updateDocument(() -> {
+          IDocument document = ownDocument;
+          if (document == null) {
+            return;
+          }
+          reload = false;
+          try {
+            for (EditorContentChange change : changes) {
+              document.replace(change.getRangeOffset(), change.getRangeLength(),
+                  change.getText());
+            }
+          } catch (BadLocationException e) {
+            logger.warn("The document is out of sync with the editor", e);
+            editor.requestContentResync();
+          } finally {
+            reload = true;
+          }
+        });
+      }
+
+      @Override
+      public void contentResynced(int versionId, String content) {
+        updateDocument(() -> {
+          IDocument document = ownDocument;
+          if (document != null && !content.equals(document.get())) {
+            reload = false;
+            document.set(content);
+            reload = true;
+          }
+        });
       }
     };
-    editor.subscribeChanges(dirtyListener, undoListener, redoListener, contentChangeListener);
+    // Only the transitions of the flags update the UI, and the file buffer is
+    // updated a few times per second while typing
+    ChangeDeliveryPolicy flagsPolicy = ChangeDeliveryPolicy.onTransition();
+    editor.subscribeDirtyState(dirtyListener, flagsPolicy);
+    editor.subscribeCanUndo(undoListener, flagsPolicy);
+    editor.subscribeCanRedo(redoListener, flagsPolicy);
+    contentSubscription = editor.subscribeContent(contentListener,
+        ChangeDeliveryPolicy.debounced(DOCUMENT_SYNC_DELAY, DOCUMENT_SYNC_MAX_DELAY));
 
     editor.configSelection((selection) -> {
-      Display.getDefault().asyncExec(() -> {
-        selectionProvider.setSelection(selection);
-      });
+      uiUpdates.post("selection", selection, selectionProvider::setSelection);
     });
     editor.configRename((empty) -> {
       Display.getDefault().asyncExec(() -> {
@@ -569,6 +704,8 @@ public class MonacoEditorPart extends AbstractTextEditor {
   @Override
   public void dispose() {
     super.dispose();
+    lspAttachGeneration.incrementAndGet();
+    uiUpdates.dispose();
     if (ownFileBufferListener != null) {
       FileBuffers.getTextFileBufferManager().removeFileBufferListener(ownFileBufferListener);
     }
@@ -20,19 +20,13 @@
 **
 ****************************************************************************/
 
+
 package com.equo.eclipse.monaco.lsp;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
 
-import org.eclipse.debug.core.model.IProcess;
-import org.eclipse.debug.core.model.RuntimeProcess;
 import org.eclipse.lsp4e.LanguageServerWrapper;
-import org.eclipse.lsp4e.LaunchConfigurationStreamProvider;
-import org.eclipse.lsp4e.server.ProcessStreamConnectionProvider;
 import org.eclipse.lsp4e.server.StreamConnectionProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,12 +34,17 @@ import org.slf4j.LoggerFactory;
 import com.equo.monaco.lsp.LspProxy;
 
 /**
- * Proxy between a language server process runned by Eclipse and the editor.
+ * Proxy between a language server runned by Eclipse and the editor. The editor
+ * messages are sent through the connection that lsp4e already has with the
+ * server, so no other server process is started. If that connection can't be
+ * shared, the editor gets its own connection to a new server process.
  */
 public class EclipseLspProxy extends LspProxy {
 
-  private StreamConnectionProvider streamConnectionProvider;
-  private Process process;
+  private final LanguageServerWrapper lspServer;
+  private final BiConsumer<String, Integer> documentSynchronizer;
+  private Lsp4eBridge bridge;
+  private StreamConnectionProvider connection;
 
   protected static final Logger logger = LoggerFactory.getLogger(EclipseLspProxy.class);
 
@@ -53,75 +52,71 @@ public class EclipseLspProxy extends LspProxy {
    * Parameterized constructor.
    */
   public EclipseLspProxy(LanguageServerWrapper lspServer) {
-    try {
-      Field field = lspServer.getClass().getDeclaredField("lspStreamProvider");
-      field.setAccessible(true);
-      this.streamConnectionProvider = (StreamConnectionProvider) field.get(lspServer);
-      if (this.streamConnectionProvider == null) {
-        Thread.sleep(500);
-        this.streamConnectionProvider = (StreamConnectionProvider) field.get(lspServer);
-      }
-    } catch (Exception e) {
-      logger.error("Error obtaining LSP stream provider", e);
-    }
+    this(lspServer, (uri, version) -> {
+    });
   }
 
-  private Process getProcessFromStreamConnectionProvider() {
-    Field field;
-    try {
-      if (streamConnectionProvider instanceof ProcessStreamConnectionProvider) {
-        field = ProcessStreamConnectionProvider.class.getDeclaredField("process");
-      } else if (streamConnectionProvider instanceof LaunchConfigurationStreamProvider) {
-        field = LaunchConfigurationStreamProvider.class.getDeclaredField("process");
-        field.setAccessible(true);
-        IProcess result = (IProcess) field.get(streamConnectionProvider);
-        if (!(result instanceof RuntimeProcess)) {
-          return null;
-        }
-        Method systemProcessGetter = RuntimeProcess.class.getDeclaredMethod("getSystemProcess");
-        systemProcessGetter.setAccessible(true);
-        return (Process) systemProcessGetter.invoke(result);
-      } else {
-        return null;
-      }
-      field.setAccessible(true);
-      return (Process) field.get(streamConnectionProvider);
-    } catch (Exception e) {
-      logger.error("Error obtaining language server process", e);
-    }
-    return null;
+  /**
+   * Parameterized constructor.
+   * @param lspServer            the lsp4e wrapper of the language server
+   * @param documentSynchronizer pushes the editor contents up to a version into
+   *                             the Eclipse document of an uri, see
+   *                             {@link Lsp4eBridge}
+   */
+  public EclipseLspProxy(LanguageServerWrapper lspServer,
+      BiConsumer<String, Integer> documentSynchronizer) {
+    this.lspServer = lspServer;
+    this.documentSynchronizer = documentSynchronizer;
   }
 
+  /**
+   * Connects the proxy to the language server. It waits the server to be
+   * initialized by lsp4e, so this must not be called from the UI thread. Use
+   * {@link #startServerAsync()} instead.
+   */
   @Override
-  public void startServer() {
-    if (streamConnectionProvider == null) {
+  public synchronized void startServer() {
+    if (bridge != null || connection != null) {
       return;
     }
+    Lsp4eBridge newBridge =
+        new Lsp4eBridge(lspServer, this::handleServerMessage, documentSynchronizer);
     try {
-      synchronized (streamConnectionProvider) {
-        streamConnectionProvider.start();
-        this.process = getProcessFromStreamConnectionProvider();
-
-        InputStream streamIn = streamConnectionProvider.getInputStream();
-        OutputStream streamOut = streamConnectionProvider.getOutputStream();
-        startProxy(streamIn, streamOut);
+      if (newBridge.connect()) {
+        startProxy(newBridge);
+        bridge = newBridge;
+      } else {
+        startDedicatedConnection();
       }
-    } catch (IOException e) {
-      logger.error("Error starting language server", e);
+    } catch (Exception e) {
+      logger.error("Error connecting to language server", e);
     }
   }
 
+  /**
+   * Starts a new process of the language server only for the editors, which
+   * synchronize their documents with it themselves.
+   */
+  private void startDedicatedConnection() throws IOException {
+    logger.warn("Starting a dedicated " + lspServer.serverDefinition.id
+        + " language server for the editors");
+    StreamConnectionProvider provider = lspServer.serverDefinition.createConnectionProvider();
+    provider.start();
+    startProxy(provider.getInputStream(), provider.getOutputStream());
+    connection = provider;
+  }
+
+  /**
+   * Stops the proxy. The language server is kept running, because it is managed
+   * by lsp4e, unless it was started only for the editors.
+   */
   @Override
-  public void stopServer() {
+  public synchronized void stopServer() {
     super.stopServer();
-    synchronized (streamConnectionProvider) {
-      if (streamConnectionProvider != null) {
-        if (this.process == getProcessFromStreamConnectionProvider()) {
-          streamConnectionProvider.stop();
-        } else if (this.process != null) {
-          process.destroy();
-        }
-      }
+    bridge = null;
+    if (connection != null) {
+      connection.stop();
+      connection = null;
     }
   }
 
@@ -0,0 +1,405 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.eclipse.monaco.lsp;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.eclipse.lsp4e.LanguageServerWrapper;
+import org.eclipse.lsp4j.jsonrpc.Endpoint;
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+import org.eclipse.lsp4j.jsonrpc.services.EndpointProxy;
+import org.eclipse.lsp4j.services.LanguageServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.equo.monaco.lsp.LspServerChannel;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Sends the messages of the editors through the connection that lsp4e already
+ * has with a language server, so Eclipse and the editors share the same server
+ * process. The requests are made with the lsp4e remote endpoint and answered
+ * with the ids of the editors. The notifications of the server are delivered
+ * to lsp4e and also sent to the editors.
+ *
+ * <p>The documents that Eclipse already synchronizes with the server are not
+ * synchronized again by the editors. Instead, before a request about one of
+ * them, the document synchronizer is asked to push the editor contents up to
+ * the version of the request into the Eclipse document, from where lsp4e
+ * sends them to the server.
+ */
+public class Lsp4eBridge implements LspServerChannel {
+  private static final Logger logger = LoggerFactory.getLogger(Lsp4eBridge.class);
+  private static final long INITIALIZE_TIMEOUT = 30000;
+  private static final JsonParser PARSER = new JsonParser();
+  private static final Gson gson = new MessageJsonHandler(Collections.emptyMap()).getGson();
+  private static final Map<RemoteEndpoint, FanOutEndpoint> fanOutEndpoints = new WeakHashMap<>();
+  private static final ExecutorService SYNCHRONIZER = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "Lsp document synchronizer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final LanguageServerWrapper lspServer;
+  private final Consumer<String> clientSender;
+  private final BiConsumer<String, Integer> documentSynchronizer;
+  private final Map<String, CompletableFuture<Object>> pendingRequests =
+      new ConcurrentHashMap<>();
+  private final Map<String, Integer> eclipseDocuments = new ConcurrentHashMap<>();
+  private final Set<String> openedDocuments = ConcurrentHashMap.newKeySet();
+  private RemoteEndpoint remoteEndpoint;
+  private FanOutEndpoint fanOutEndpoint;
+  private volatile boolean closed = false;
+
+  /**
+   * Parameterized constructor.
+   * @param lspServer            the lsp4e wrapper of the language server
+   * @param clientSender         sends a server message to the editors
+   * @param documentSynchronizer receives the uri and the editor version of a
+   *                             document synchronized by Eclipse, and returns
+   *                             once the Eclipse document has those contents.
+   *                             It is called outside the thread that sends the
+   *                             editor messages, so it may block
+   */
+  public Lsp4eBridge(LanguageServerWrapper lspServer, Consumer<String> clientSender,
+      BiConsumer<String, Integer> documentSynchronizer) {
+    this.lspServer = lspServer;
+    this.clientSender = clientSender;
+    this.documentSynchronizer = documentSynchronizer;
+  }
+
+  /**
+   * Waits the language server to be initialized by lsp4e and connects to it.
+   * @return           false if the lsp4e connection could not be shared, so the
+   *                   editors need their own connection to the server
+   * @throws Exception if the server could not be initialized
+   */
+  public boolean connect() throws Exception {
+    LanguageServer server =
+        lspServer.getInitializedServer().get(INITIALIZE_TIMEOUT, TimeUnit.MILLISECONDS);
+    try {
+      InvocationHandler handler = Proxy.getInvocationHandler(server);
+      Field delegateField = EndpointProxy.class.getDeclaredField("delegate");
+      delegateField.setAccessible(true);
+      remoteEndpoint = (RemoteEndpoint) delegateField.get(handler);
+      fanOutEndpoint = getFanOutEndpoint(remoteEndpoint);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // The internals of lsp4j changed, or the module system denies the access
+      logger.error("The lsp4e connection of " + lspServer.serverDefinition.id
+          + " can't be shared with the editors", e);
+      remoteEndpoint = null;
+      return false;
+    }
+    fanOutEndpoint.listeners.add(clientSender);
+    return true;
+  }
+
+  /**
+   * Replaces the local endpoint of the lsp4e connection, the one that receives
+   * the server notifications, with one that also sends them to the editors. It
+   * is done once per connection and kept while the connection lives.
+   */
+  private static FanOutEndpoint getFanOutEndpoint(RemoteEndpoint remoteEndpoint)
+      throws ReflectiveOperationException {
+    synchronized (fanOutEndpoints) {
+      FanOutEndpoint fanOutEndpoint = fanOutEndpoints.get(remoteEndpoint);
+      if (fanOutEndpoint == null) {
+        Field localEndpointField = RemoteEndpoint.class.getDeclaredField("localEndpoint");
+        localEndpointField.setAccessible(true);
+        fanOutEndpoint = new FanOutEndpoint((Endpoint) localEndpointField.get(remoteEndpoint));
+        localEndpointField.set(remoteEndpoint, fanOutEndpoint);
+        fanOutEndpoints.put(remoteEndpoint, fanOutEndpoint);
+      }
+      return fanOutEndpoint;
+    }
+  }
+
+  @Override
+  public boolean send(String message) {
+    if (closed) {
+      return false;
+    }
+    JsonObject json;
+    try {
+      json = PARSER.parse(message).getAsJsonObject();
+    } catch (JsonParseException | IllegalStateException e) {
+      // Not a channel failure, the next messages can still be sent
+      logger.warn("Discarded invalid editor message: " + message);
+      return true;
+    }
+    JsonElement method = json.get("method");
+    if (method == null) {
+      // Responses to server requests, which are answered by Eclipse
+      return true;
+    }
+    JsonElement id = json.get("id");
+    if (id != null) {
+      handleRequest(id, method.getAsString(), json.get("params"));
+    } else {
+      handleNotification(method.getAsString(), json.get("params"));
+    }
+    return true;
+  }
+
+  private void handleRequest(JsonElement id, String method, JsonElement params) {
+    switch (method) {
+      case "initialize":
+        // The server was already initialized by lsp4e
+        JsonObject result = new JsonObject();
+        result.add("capabilities", gson.toJsonTree(lspServer.getServerCapabilities()));
+        sendResult(id, result);
+        return;
+      case "shutdown":
+        sendResult(id, JsonNull.INSTANCE);
+        return;
+      default:
+        break;
+    }
+    String uri = getDocumentUri(params);
+    Integer version = (uri != null) ? eclipseDocuments.get(uri) : null;
+    String key = id.toString();
+    CompletableFuture<Object> future = (version != null)
+        ? requestAfterSync(uri, version, method, params)
+        : remoteEndpoint.request(method, params);
+    pendingRequests.put(key, future);
+    future.whenComplete((response, error) -> {
+      pendingRequests.remove(key);
+      if (closed) {
+        return;
+      }
+      try {
+        if (error == null) {
+          sendResult(id, (response != null) ? gson.toJsonTree(response) : JsonNull.INSTANCE);
+        } else {
+          sendError(id, error);
+        }
+      } catch (RuntimeException e) {
+        logger.error("Error sending a language server response to the editors", e);
+      }
+    });
+  }
+
+  /**
+   * Makes a request about a document synchronized by Eclipse once the editor
+   * contents reach the Eclipse document, so the server answers with the
+   * contents that the editor has. The synchronization waits the editor and the
+   * UI thread, so it is done in background.
+   */
+  private CompletableFuture<Object> requestAfterSync(String uri, int version, String method,
+      JsonElement params) {
+    CompletableFuture<Object> result = new CompletableFuture<>();
+    CompletableFuture.runAsync(() -> documentSynchronizer.accept(uri, version), SYNCHRONIZER)
+        .thenCompose(v -> {
+          if (result.isDone()) {
+            // Cancelled while the document was synchronized
+            return result;
+          }
+          CompletableFuture<Object> request = remoteEndpoint.request(method, params);
+          result.whenComplete((response, error) -> request.cancel(true));
+          return request;
+        }).whenComplete((response, error) -> {
+          if (error == null) {
+            result.complete(response);
+          } else {
+            result.completeExceptionally(error);
+          }
+        });
+    return result;
+  }
+
+  private void handleNotification(String method, JsonElement params) {
+    String uri = getDocumentUri(params);
+    switch (method) {
+      case "initialized":
+      case "exit":
+        return;
+      case "$/cancelRequest":
+        if (params == null || !params.isJsonObject()) {
+          return;
+        }
+        JsonElement id = params.getAsJsonObject().get("id");
+        CompletableFuture<Object> future = (id != null) ? pendingRequests.get(id.toString()) : null;
+        if (future != null) {
+          // lsp4e sends the cancellation to the server
+          future.cancel(true);
+        }
+        return;
+      case "textDocument/didOpen":
+        if (uri != null && lspServer.isConnectedTo(URI.create(uri))) {
+          // Eclipse already keeps this document synchronized with the server
+          eclipseDocuments.put(uri, getDocumentVersion(params));
+          return;
+        }
+        if (uri != null) {
+          openedDocuments.add(uri);
+        }
+        break;
+      case "textDocument/didClose":
+        if (uri != null) {
+          openedDocuments.remove(uri);
+          if (eclipseDocuments.remove(uri) != null) {
+            return;
+          }
+        }
+        break;
+      case "textDocument/didChange":
+        if (uri != null && eclipseDocuments.containsKey(uri)) {
+          // Eclipse sends the changes once the editor pushes them to its document
+          eclipseDocuments.put(uri, getDocumentVersion(params));
+          return;
+        }
+        break;
+      default:
+        if (uri != null && eclipseDocuments.containsKey(uri)) {
+          return;
+        }
+        break;
+    }
+    remoteEndpoint.notify(method, params);
+  }
+
+  private static String getDocumentUri(JsonElement params) {
+    if (params == null || !params.isJsonObject()
+        || !params.getAsJsonObject().has("textDocument")) {
+      return null;
+    }
+    JsonElement uri = params.getAsJsonObject().getAsJsonObject("textDocument").get("uri");
+    return (uri != null) ? uri.getAsString() : null;
+  }
+
+  private static int getDocumentVersion(JsonElement params) {
+    JsonElement version = params.getAsJsonObject().getAsJsonObject("textDocument").get("version");
+    return (version != null && !version.isJsonNull()) ? version.getAsInt() : -1;
+  }
+
+  private void sendResult(JsonElement id, JsonElement result) {
+    JsonObject response = new JsonObject();
+    response.addProperty("jsonrpc", "2.0");
+    response.add("id", id);
+    response.add("result", result);
+    clientSender.accept(response.toString());
+  }
+
+  private void sendError(JsonElement id, Throwable error) {
+    Throwable cause = (error instanceof CompletionException && error.getCause() != null)
+        ? error.getCause()
+        : error;
+    ResponseError responseError;
+    if (cause instanceof ResponseErrorException) {
+      responseError = ((ResponseErrorException) cause).getResponseError();
+    } else if (cause instanceof CancellationException) {
+      responseError = new ResponseError(ResponseErrorCode.RequestCancelled, "Request cancelled",
+          null);
+    } else {
+      responseError =
+          new ResponseError(ResponseErrorCode.InternalError, String.valueOf(cause), null);
+    }
+    JsonObject response = new JsonObject();
+    response.addProperty("jsonrpc", "2.0");
+    response.add("id", id);
+    response.add("error", gson.toJsonTree(responseError));
+    clientSender.accept(response.toString());
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (fanOutEndpoint != null) {
+      fanOutEndpoint.listeners.remove(clientSender);
+    }
+    for (CompletableFuture<Object> future : pendingRequests.values()) {
+      future.cancel(true);
+    }
+    pendingRequests.clear();
+    // Eclipse keeps using the server, so the documents of the editors are closed
+    for (String uri : openedDocuments) {
+      JsonObject textDocument = new JsonObject();
+      textDocument.addProperty("uri", uri);
+      JsonObject params = new JsonObject();
+      params.add("textDocument", textDocument);
+      remoteEndpoint.notify("textDocument/didClose", params);
+    }
+    openedDocuments.clear();
+  }
+
+  /**
+   * Local endpoint that delivers the server messages to lsp4e, and also sends
+   * the notifications to the editors.
+   */
+  private static class FanOutEndpoint implements Endpoint {
+    private final Endpoint delegate;
+    private final Set<Consumer<String>> listeners = new CopyOnWriteArraySet<>();
+
+    private FanOutEndpoint(Endpoint delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public CompletableFuture<?> request(String method, Object parameter) {
+      return delegate.request(method, parameter);
+    }
+
+    @Override
+    public void notify(String method, Object parameter) {
+      delegate.notify(method, parameter);
+      if (listeners.isEmpty()) {
+        return;
+      }
+      JsonObject notification = new JsonObject();
+      notification.addProperty("jsonrpc", "2.0");
+      notification.addProperty("method", method);
+      notification.add("params", gson.toJsonTree(parameter));
+      String message = notification.toString();
+      for (Consumer<String> listener : listeners) {
+        listener.accept(message);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.equo.monaco.lsp.CommonLspProxy;
+import com.equo.monaco.lsp.LspWsEndpoint;
+import com.equo.monaco.tests.util.FakeLanguageServer;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class CommonLspProxyTest {
+	private static final JsonParser PARSER = new JsonParser();
+
+	private CommonLspProxy proxy;
+	private EditorClient editor;
+
+	@Before
+	public void before() throws Exception {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		String classpath = Paths
+				.get(FakeLanguageServer.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+				.toString();
+		proxy = new CommonLspProxy(
+				Arrays.asList(java, "-cp", classpath, FakeLanguageServer.class.getName()));
+		proxy.startServer();
+		editor = new EditorClient(new URI(proxy.getUrl("editor")));
+		assertThat(editor.connectBlocking(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@After
+	public void after() throws Exception {
+		editor.closeBlocking();
+		proxy.stopServer();
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		LspWsEndpoint.stopInstance();
+	}
+
+	private static JsonObject message(Integer id, String method, JsonObject params) {
+		JsonObject message = new JsonObject();
+		message.addProperty("jsonrpc", "2.0");
+		if (id != null) {
+			message.addProperty("id", id);
+		}
+		message.addProperty("method", method);
+		message.add("params", params);
+		return message;
+	}
+
+	private static JsonObject initializeParams() {
+		JsonObject params = new JsonObject();
+		params.add("processId", JsonNull.INSTANCE);
+		params.add("rootUri", JsonNull.INSTANCE);
+		params.add("capabilities", new JsonObject());
+		return params;
+	}
+
+	private static JsonObject definitionParams() {
+		JsonObject textDocument = new JsonObject();
+		textDocument.addProperty("uri", "file:///project/main.c");
+		JsonObject params = new JsonObject();
+		params.add("textDocument", textDocument);
+		return params;
+	}
+
+	@Test
+	public void restartDoesNotKillTheNewServer() throws Exception {
+		editor.send(message(1, "initialize", initializeParams()).toString());
+		assertThat(editor.next().get("id")).isEqualTo(PARSER.parse("1"));
+		editor.send(message(null, "initialized", new JsonObject()).toString());
+
+		// The server exits as soon as it answers the shutdown request
+		proxy.restartServer();
+		Thread.sleep(CommonLspProxy.RESTART_DELAY * 3);
+
+		assertThat(proxy.getRestarts()).isEqualTo(1);
+		assertThat(proxy.isRunning()).isTrue();
+		editor.send(message(2, "textDocument/definition", definitionParams()).toString());
+		JsonObject response = editor.next();
+		assertThat(response.get("id")).isEqualTo(PARSER.parse("2"));
+		assertThat(response.get("result")).isEqualTo(JsonNull.INSTANCE);
+	}
+
+	/**
+	 * Editor connected to the proxy, which keeps the messages it receives.
+	 */
+	private static class EditorClient extends WebSocketClient {
+		private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+		private EditorClient(URI uri) {
+			super(uri);
+		}
+
+		private JsonObject next() throws InterruptedException {
+			String message = messages.poll(10, TimeUnit.SECONDS);
+			assertThat(message).isNotNull();
+			return PARSER.parse(message).getAsJsonObject();
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake) {
+		}
+
+		@Override
+		public void onMessage(String message) {
+			messages.add(message);
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote) {
+		}
+
+		@Override
+		public void onError(Exception ex) {
+		}
+	}
+
+}
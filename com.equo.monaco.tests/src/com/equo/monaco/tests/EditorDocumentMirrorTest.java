@@ -0,0 +1,81 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.equo.monaco.EditorContentChange;
+import com.equo.monaco.EditorDocumentMirror;
+
+public class EditorDocumentMirrorTest {
+
+	private static EditorContentChange change(int offset, int length, String text) {
+		return new EditorContentChange(offset, length, text, 1, 1, 1, 1);
+	}
+
+	@Test
+	public void changesAreAppliedInOrder() {
+		EditorDocumentMirror mirror = new EditorDocumentMirror();
+		mirror.contentResynced(1, "hello world");
+		mirror.contentChanged(2, Arrays.asList(change(6, 5, "there"), change(0, 0, "oh, ")));
+		mirror.contentChanged(3, Arrays.asList(change(4, 1, "H"), change(15, 0, "!")));
+
+		assertThat(mirror.getText()).isEqualTo("oh, Hello there!");
+		assertThat(mirror.getLength()).isEqualTo(16);
+		assertThat(mirror.getVersion()).isEqualTo(3);
+	}
+
+	@Test
+	public void resyncReplacesTheContents() {
+		EditorDocumentMirror mirror = new EditorDocumentMirror();
+		mirror.contentResynced(1, "abc");
+		mirror.contentChanged(2, Arrays.asList(change(1, 1, "")));
+		mirror.contentResynced(7, "xyz");
+
+		assertThat(mirror.getText()).isEqualTo("xyz");
+		assertThat(mirror.getVersion()).isEqualTo(7);
+	}
+
+	@Test
+	public void manyRandomChangesMatchAStringBuilder() {
+		Random random = new Random(42);
+		StringBuilder expected = new StringBuilder("0123456789");
+		EditorDocumentMirror mirror = new EditorDocumentMirror();
+		mirror.contentResynced(1, expected.toString());
+		for (int i = 0; i < 5000; i++) {
+			int offset = random.nextInt(expected.length() + 1);
+			int length = random.nextInt(Math.min(5, expected.length() - offset) + 1);
+			String text = (random.nextInt(3) == 0) ? "" : Integer.toString(i);
+			expected.replace(offset, offset + length, text);
+			mirror.replace(offset, length, text);
+		}
+
+		assertThat(mirror.getText()).isEqualTo(expected.toString());
+	}
+
+}
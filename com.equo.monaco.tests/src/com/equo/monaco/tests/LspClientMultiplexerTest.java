@@ -0,0 +1,384 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.equo.monaco.lsp.LspClientMultiplexer;
+import com.equo.monaco.lsp.LspMessageReader;
+import com.equo.monaco.lsp.LspMessageWriter;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class LspClientMultiplexerTest {
+	private static final JsonParser PARSER = new JsonParser();
+	private static final String URI = "file:///project/main.c";
+	private static final String OTHER_URI = "file:///project/other.c";
+
+	private LspMessageWriter writer;
+	private PipedInputStream serverInput;
+	private LspClientMultiplexer multiplexer;
+	private final BlockingQueue<String> serverMessages = new LinkedBlockingQueue<>();
+
+	@Before
+	public void before() throws IOException {
+		serverInput = new PipedInputStream(1024 * 1024);
+		writer = new LspMessageWriter(new PipedOutputStream(serverInput));
+		multiplexer = new LspClientMultiplexer(writer::send);
+		Thread serverThread = new Thread(() -> {
+			LspMessageReader reader = new LspMessageReader(serverInput);
+			try {
+				while (reader.read(serverMessages::add)) {
+					// Every message read is kept for the test
+				}
+			} catch (IOException e) {
+				// The writer was closed
+			}
+		});
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+
+	@After
+	public void after() throws IOException {
+		writer.close();
+		serverInput.close();
+	}
+
+	private JsonObject nextServerMessage() throws InterruptedException {
+		String message = serverMessages.poll(5, TimeUnit.SECONDS);
+		assertThat(message).isNotNull();
+		return PARSER.parse(message).getAsJsonObject();
+	}
+
+	/**
+	 * Checks that the server received nothing else, sending a notification that
+	 * must be the next message it receives.
+	 */
+	private void assertNoMoreServerMessages(Editor editor) throws InterruptedException {
+		editor.send(notification("custom/sentinel", new JsonObject()));
+		assertThat(nextServerMessage().get("method").getAsString()).isEqualTo("custom/sentinel");
+	}
+
+	private Editor connect(String clientId) {
+		Editor editor = new Editor();
+		multiplexer.clientConnected(editor.conn, clientId);
+		return editor;
+	}
+
+	private static JsonObject notification(String method, JsonObject params) {
+		JsonObject notification = new JsonObject();
+		notification.addProperty("jsonrpc", "2.0");
+		notification.addProperty("method", method);
+		notification.add("params", params);
+		return notification;
+	}
+
+	private static JsonObject request(int id, String method, JsonObject params) {
+		JsonObject request = notification(method, params);
+		request.addProperty("id", id);
+		return request;
+	}
+
+	private static JsonObject response(JsonElement id, String result) {
+		JsonObject response = new JsonObject();
+		response.addProperty("jsonrpc", "2.0");
+		response.add("id", id);
+		response.add("result", PARSER.parse(result));
+		return response;
+	}
+
+	private static JsonObject textDocument(String uri) {
+		JsonObject textDocument = new JsonObject();
+		textDocument.addProperty("uri", uri);
+		JsonObject params = new JsonObject();
+		params.add("textDocument", textDocument);
+		return params;
+	}
+
+	private static JsonObject positionParams(String uri, int character) {
+		JsonObject params = textDocument(uri);
+		JsonObject position = new JsonObject();
+		position.addProperty("line", 0);
+		position.addProperty("character", character);
+		params.add("position", position);
+		return params;
+	}
+
+	private static JsonObject didOpen(String uri, int version, String text) {
+		JsonObject params = textDocument(uri);
+		JsonObject textDocument = params.getAsJsonObject("textDocument");
+		textDocument.addProperty("languageId", "c");
+		textDocument.addProperty("version", version);
+		textDocument.addProperty("text", text);
+		return notification("textDocument/didOpen", params);
+	}
+
+	private static JsonObject didChange(String uri, int version, int character, String text) {
+		JsonObject params = textDocument(uri);
+		params.getAsJsonObject("textDocument").addProperty("version", version);
+		JsonObject position = new JsonObject();
+		position.addProperty("line", 0);
+		position.addProperty("character", character);
+		JsonObject range = new JsonObject();
+		range.add("start", position);
+		range.add("end", position);
+		JsonObject change = new JsonObject();
+		change.add("range", range);
+		change.addProperty("text", text);
+		JsonArray changes = new JsonArray();
+		changes.add(change);
+		params.add("contentChanges", changes);
+		return notification("textDocument/didChange", params);
+	}
+
+	@Test
+	public void responsesOnlyReachTheEditorThatMadeTheRequest() throws Exception {
+		Editor first = connect("first");
+		Editor second = connect("second");
+		first.send(request(1, "textDocument/definition", positionParams(URI, 0)));
+		second.send(request(1, "textDocument/definition", positionParams(URI, 0)));
+
+		JsonObject firstRequest = nextServerMessage();
+		JsonObject secondRequest = nextServerMessage();
+		assertThat(firstRequest.get("id")).isNotEqualTo(secondRequest.get("id"));
+		multiplexer.handleServerMessage(response(secondRequest.get("id"), "\"second\"").toString());
+		multiplexer.handleServerMessage(response(firstRequest.get("id"), "\"first\"").toString());
+
+		assertThat(second.next()).isEqualTo(response(PARSER.parse("1"), "\"second\""));
+		assertThat(first.next()).isEqualTo(response(PARSER.parse("1"), "\"first\""));
+		assertThat(first.messages).isEmpty();
+		assertThat(second.messages).isEmpty();
+	}
+
+	@Test
+	public void initializeIsSentOnceAndItsResultIsShared() throws Exception {
+		Editor first = connect("first");
+		Editor second = connect("second");
+		first.send(request(1, "initialize", new JsonObject()));
+		second.send(request(7, "initialize", new JsonObject()));
+
+		JsonObject initialize = nextServerMessage();
+		assertThat(initialize.get("method").getAsString()).isEqualTo("initialize");
+		assertNoMoreServerMessages(first);
+		multiplexer.handleServerMessage(response(initialize.get("id"), "{\"capabilities\":{}}")
+				.toString());
+
+		assertThat(first.next().get("id").getAsInt()).isEqualTo(1);
+		assertThat(second.next().get("id").getAsInt()).isEqualTo(7);
+		Editor third = connect("third");
+		third.send(request(3, "initialize", new JsonObject()));
+		assertThat(third.next()).isEqualTo(response(PARSER.parse("3"), "{\"capabilities\":{}}"));
+		assertNoMoreServerMessages(third);
+	}
+
+	@Test
+	public void supersededCompletionIsCancelledAndItsResponseDropped() throws Exception {
+		Editor editor = connect("editor");
+		editor.send(request(1, "textDocument/completion", positionParams(URI, 1)));
+		editor.send(request(2, "textDocument/completion", positionParams(URI, 2)));
+
+		JsonObject firstRequest = nextServerMessage();
+		JsonObject secondRequest = nextServerMessage();
+		JsonObject cancel = nextServerMessage();
+		assertThat(cancel.get("method").getAsString()).isEqualTo("$/cancelRequest");
+		assertThat(cancel.getAsJsonObject("params").get("id")).isEqualTo(firstRequest.get("id"));
+		JsonObject cancelled = editor.next();
+		assertThat(cancelled.get("id").getAsInt()).isEqualTo(1);
+		assertThat(cancelled.getAsJsonObject("error").get("code").getAsInt()).isEqualTo(-32800);
+
+		multiplexer.handleServerMessage(response(firstRequest.get("id"), "[]").toString());
+		multiplexer.handleServerMessage(response(secondRequest.get("id"), "[1]").toString());
+		assertThat(editor.next()).isEqualTo(response(PARSER.parse("2"), "[1]"));
+		assertThat(editor.messages).isEmpty();
+		assertThat(multiplexer.getSupersededRequests()).isEqualTo(1);
+		assertThat(multiplexer.getDroppedResponses()).isEqualTo(1);
+	}
+
+	@Test
+	public void hoverIsAnsweredFromCacheUntilTheDocumentChanges() throws Exception {
+		Editor editor = connect("editor");
+		editor.send(didOpen(URI, 1, "int main;"));
+		assertThat(nextServerMessage().get("method").getAsString()).isEqualTo("textDocument/didOpen");
+		editor.send(request(1, "textDocument/hover", positionParams(URI, 4)));
+		JsonObject hover = nextServerMessage();
+		multiplexer.handleServerMessage(response(hover.get("id"), "{\"contents\":\"main\"}").toString());
+		assertThat(editor.next().get("id").getAsInt()).isEqualTo(1);
+
+		editor.send(request(2, "textDocument/hover", positionParams(URI, 4)));
+		assertThat(editor.next()).isEqualTo(response(PARSER.parse("2"), "{\"contents\":\"main\"}"));
+		assertNoMoreServerMessages(editor);
+
+		editor.send(didChange(URI, 2, 0, "static "));
+		editor.send(request(3, "textDocument/hover", positionParams(URI, 4)));
+		assertThat(nextServerMessage().get("method").getAsString())
+				.isEqualTo("textDocument/didChange");
+		assertThat(nextServerMessage().get("method").getAsString()).isEqualTo("textDocument/hover");
+	}
+
+	@Test
+	public void heldChangesReachTheServerBeforeTheNextMessage() throws Exception {
+		Editor editor = connect("editor");
+		editor.send(didOpen(URI, 1, "abc"));
+		nextServerMessage();
+		editor.send(didChange(URI, 2, 0, "x"));
+		editor.send(didChange(URI, 3, 1, "y"));
+		editor.send(request(1, "textDocument/definition", positionParams(URI, 0)));
+
+		int changes = 0;
+		JsonObject message = nextServerMessage();
+		while (message.get("method").getAsString().equals("textDocument/didChange")) {
+			changes += message.getAsJsonObject("params").getAsJsonArray("contentChanges").size();
+			message = nextServerMessage();
+		}
+		assertThat(changes).isEqualTo(2);
+		assertThat(message.get("method").getAsString()).isEqualTo("textDocument/definition");
+	}
+
+	@Test
+	public void secondEditorOfADocumentTakesOverWhenTheOwnerClosesIt() throws Exception {
+		Editor owner = connect("owner");
+		Editor other = connect("other");
+		owner.send(didOpen(URI, 1, "abc"));
+		assertThat(nextServerMessage().get("method").getAsString()).isEqualTo("textDocument/didOpen");
+
+		other.send(didOpen(URI, 1, "abc"));
+		other.send(didChange(URI, 2, 0, "X"));
+		other.send(request(5, "textDocument/hover", positionParams(URI, 0)));
+		assertThat(other.next().getAsJsonObject("error").get("code").getAsInt()).isEqualTo(-32803);
+		assertNoMoreServerMessages(other);
+
+		owner.send(notification("textDocument/didClose", textDocument(URI)));
+		assertThat(nextServerMessage().get("method").getAsString())
+				.isEqualTo("textDocument/didClose");
+		JsonObject reopened = nextServerMessage();
+		assertThat(reopened.get("method").getAsString()).isEqualTo("textDocument/didOpen");
+		JsonObject textDocument = reopened.getAsJsonObject("params").getAsJsonObject("textDocument");
+		assertThat(textDocument.get("text").getAsString()).isEqualTo("Xabc");
+		assertThat(textDocument.get("version").getAsInt()).isEqualTo(2);
+
+		other.send(request(6, "textDocument/hover", positionParams(URI, 0)));
+		assertThat(nextServerMessage().get("method").getAsString()).isEqualTo("textDocument/hover");
+	}
+
+	@Test
+	public void serverRequestsAndDiagnosticsReachTheEditorOfTheDocument() throws Exception {
+		Editor first = connect("first");
+		Editor second = connect("second");
+		first.send(didOpen(URI, 1, "a"));
+		second.send(didOpen(OTHER_URI, 1, "b"));
+		nextServerMessage();
+		nextServerMessage();
+
+		String applyEdit = "{\"jsonrpc\":\"2.0\",\"id\":\"edit\",\"method\":\"workspace/applyEdit\","
+				+ "\"params\":{\"edit\":{\"changes\":{\"" + OTHER_URI + "\":[]}}}}";
+		multiplexer.handleServerMessage(applyEdit);
+		assertThat(second.next().get("method").getAsString()).isEqualTo("workspace/applyEdit");
+
+		for (int version = 1; version <= 2; version++) {
+			multiplexer.handleServerMessage("{\"jsonrpc\":\"2.0\",\"method\":"
+					+ "\"textDocument/publishDiagnostics\",\"params\":{\"uri\":\"" + URI
+					+ "\",\"version\":" + version + ",\"diagnostics\":[]}}");
+		}
+		JsonObject diagnostics = first.next();
+		assertThat(diagnostics.getAsJsonObject("params").get("version").getAsInt()).isEqualTo(2);
+		assertThat(first.messages).isEmpty();
+		assertThat(second.messages).isEmpty();
+	}
+
+	@Test
+	public void largeDiagnosticsReachTheEditorOfTheDocument() throws Exception {
+		Editor first = connect("first");
+		Editor second = connect("second");
+		first.send(didOpen(URI, 1, "a"));
+		second.send(didOpen(OTHER_URI, 1, "b"));
+		nextServerMessage();
+		nextServerMessage();
+
+		byte[] diagnostics = ("{\"jsonrpc\":\"2.0\",\"method\":\"textDocument/publishDiagnostics\","
+				+ "\"params\":{\"diagnostics\":[{\"message\":\"uri\"}],\"uri\":\"" + URI + "\"}}")
+						.getBytes(StandardCharsets.UTF_8);
+		multiplexer.handleLargeServerMessage(diagnostics, diagnostics.length);
+
+		assertThat(first.next().getAsJsonObject("params").get("uri").getAsString()).isEqualTo(URI);
+		assertThat(second.messages).isEmpty();
+	}
+
+	/**
+	 * Editor connection that keeps the messages sent to it.
+	 */
+	private class Editor implements InvocationHandler {
+		private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+		private final WebSocket conn = (WebSocket) Proxy.newProxyInstance(
+				WebSocket.class.getClassLoader(), new Class<?>[] { WebSocket.class }, this);
+
+		private void send(JsonObject message) {
+			multiplexer.handleClientMessage(conn, message.toString());
+		}
+
+		private JsonObject next() throws InterruptedException {
+			String message = messages.poll(5, TimeUnit.SECONDS);
+			assertThat(message).isNotNull();
+			return PARSER.parse(message).getAsJsonObject();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "send":
+				messages.add((String) args[0]);
+				return null;
+			case "isOpen":
+				return true;
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			case "toString":
+				return "Editor";
+			default:
+				return (method.getReturnType() == boolean.class) ? false : null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.equo.monaco.lsp.LspDiagnosticsCoalescer;
+
+public class LspDiagnosticsCoalescerTest {
+	private static final String URI = "file:///project/main.c";
+	private static final String OTHER_URI = "file:///project/other.c";
+
+	private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+	private void send(String uri, String message) {
+		sent.add(uri + " " + message);
+	}
+
+	@Test
+	public void onlyTheLatestDiagnosticsOfEachDocumentAreSent() throws Exception {
+		LspDiagnosticsCoalescer coalescer = new LspDiagnosticsCoalescer(this::send, 500, 5000);
+
+		coalescer.submit(URI, "first");
+		coalescer.submit(OTHER_URI, "other");
+		coalescer.submit(URI, "second");
+		coalescer.submit(URI, "third");
+
+		List<String> messages = new ArrayList<>();
+		messages.add(sent.poll(5, TimeUnit.SECONDS));
+		messages.add(sent.poll(5, TimeUnit.SECONDS));
+		assertThat(messages).containsExactlyInAnyOrder(URI + " third", OTHER_URI + " other");
+		assertThat(sent.poll(700, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(coalescer.getSuppressed()).isEqualTo(2);
+	}
+
+	@Test
+	public void diagnosticsAreNotHeldLongerThanTheMaxDelay() throws Exception {
+		LspDiagnosticsCoalescer coalescer = new LspDiagnosticsCoalescer(this::send, 100, 300);
+
+		// Each notification arrives before the window of the previous one ends
+		long end = System.currentTimeMillis() + 1200;
+		int submitted = 0;
+		while (System.currentTimeMillis() < end) {
+			coalescer.submit(URI, Integer.toString(submitted++));
+			Thread.sleep(20);
+		}
+
+		assertThat(sent.size()).isGreaterThanOrEqualTo(2);
+		assertThat(coalescer.getSuppressed()).isGreaterThan(0);
+	}
+
+	@Test
+	public void zeroDelayForwardsEveryNotification() {
+		LspDiagnosticsCoalescer coalescer = new LspDiagnosticsCoalescer(this::send, 0, 0);
+
+		coalescer.submit(URI, "first");
+		coalescer.submit(URI, "second");
+
+		assertThat(sent).containsExactly(URI + " first", URI + " second");
+		assertThat(coalescer.getSuppressed()).isZero();
+	}
+
+	@Test
+	public void clearDiscardsTheHeldDiagnostics() throws Exception {
+		LspDiagnosticsCoalescer coalescer = new LspDiagnosticsCoalescer(this::send, 100, 300);
+
+		coalescer.submit(URI, "first");
+		coalescer.clear();
+
+		assertThat(sent.poll(500, TimeUnit.MILLISECONDS)).isNull();
+	}
+
+}
@@ -0,0 +1,82 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.equo.monaco.lsp.LspDocument;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class LspDocumentTest {
+
+	private static JsonObject change(int startLine, int startCharacter, int endLine,
+			int endCharacter, String text) {
+		return new JsonParser()
+				.parse("{\"range\":{\"start\":{\"line\":" + startLine + ",\"character\":"
+						+ startCharacter + "},\"end\":{\"line\":" + endLine + ",\"character\":"
+						+ endCharacter + "}},\"text\":\"" + text + "\"}")
+				.getAsJsonObject();
+	}
+
+	@Test
+	public void rangeChangesAreApplied() {
+		LspDocument document = new LspDocument("file:///a", "java", 1, "first\nsecond\nthird");
+		document.applyChange(change(1, 0, 1, 6, "2nd"));
+		document.applyChange(change(0, 5, 0, 5, "!"));
+
+		assertThat(document.getText()).isEqualTo("first!\n2nd\nthird");
+	}
+
+	@Test
+	public void changeCanSpanSeveralLinesWithAnyLineEnding() {
+		LspDocument document = new LspDocument("file:///a", "java", 1, "ab\r\ncd\ref\ngh");
+		document.applyChange(change(1, 1, 3, 1, "X"));
+
+		assertThat(document.getText()).isEqualTo("ab\r\ncXh");
+	}
+
+	@Test
+	public void changeWithoutRangeReplacesTheWholeText() {
+		LspDocument document = new LspDocument("file:///a", "java", 1, "old");
+		JsonObject change = new JsonObject();
+		change.addProperty("text", "new");
+		document.applyChange(change);
+		document.setVersion(2);
+
+		JsonObject textDocument = document.toDidOpenParams().getAsJsonObject("textDocument");
+		assertThat(textDocument.get("text").getAsString()).isEqualTo("new");
+		assertThat(textDocument.get("version").getAsInt()).isEqualTo(2);
+	}
+
+	@Test
+	public void positionsBeyondTheLineEndAreClamped() {
+		LspDocument document = new LspDocument("file:///a", "java", 1, "ab\ncd");
+		document.applyChange(change(0, 10, 1, 0, ""));
+
+		assertThat(document.getText()).isEqualTo("abcd");
+	}
+
+}
@@ -0,0 +1,139 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.equo.monaco.lsp.LspLargeMessageHandler;
+import com.equo.monaco.lsp.LspMessageReader;
+import com.equo.monaco.lsp.LspMessageScanner;
+
+public class LspMessageReaderTest {
+
+	private static byte[] frame(String message) {
+		byte[] content = message.getBytes(StandardCharsets.UTF_8);
+		String header = "Content-Length: " + content.length + "\r\n\r\n";
+		byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+		byte[] result = new byte[headerBytes.length + content.length];
+		System.arraycopy(headerBytes, 0, result, 0, headerBytes.length);
+		System.arraycopy(content, 0, result, headerBytes.length, content.length);
+		return result;
+	}
+
+	@Test
+	public void severalMessagesInOneReadAreSplitted() throws Exception {
+		byte[] first = frame("{\"id\":1}");
+		byte[] second = frame("{\"id\":2}");
+		ByteBuffer data = ByteBuffer.allocate(first.length + second.length);
+		data.put(first).put(second).flip();
+
+		List<String> messages = new ArrayList<>();
+		new LspMessageReader(null).process(data, messages::add);
+
+		assertThat(messages).containsExactly("{\"id\":1}", "{\"id\":2}");
+	}
+
+	@Test
+	public void messageSplittedInSeveralReadsIsJoined() throws Exception {
+		byte[] data = frame("{\"method\":\"initialized\"}");
+		List<String> messages = new ArrayList<>();
+		LspMessageReader reader = new LspMessageReader(null);
+		for (byte value : data) {
+			reader.process(ByteBuffer.wrap(new byte[] { value }), messages::add);
+		}
+
+		assertThat(messages).containsExactly("{\"method\":\"initialized\"}");
+	}
+
+	@Test
+	public void multiByteCharactersAreCountedAsBytes() throws Exception {
+		String message = "{\"result\":\"ñandú → 日本\"}";
+		byte[] data = frame(message);
+		List<String> messages = new ArrayList<>();
+		LspMessageReader reader = new LspMessageReader(new ByteArrayInputStream(data), 5);
+		while (reader.read(messages::add)) {
+			// Keeps reading until the end of the stream
+		}
+
+		assertThat(messages).containsExactly(message);
+	}
+
+	@Test
+	public void otherHeadersAreIgnored() throws Exception {
+		String header = "content-length: 2\r\nContent-Type: application/vscode-jsonrpc; charset=utf-8"
+				+ "\r\n\r\n{}";
+		List<String> messages = new ArrayList<>();
+		new LspMessageReader(null).process(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)),
+				messages::add);
+
+		assertThat(messages).containsExactly("{}");
+	}
+
+	@Test
+	public void bigMessagesAreGivenToTheLargeMessageHandler() throws Exception {
+		byte[] large = frame("{\"jsonrpc\":\"2.0\",\"result\":{\"id\":5},\"id\":\"a\"}");
+		byte[] oversized = frame("{\"params\":{\"id\":\"}\"},\"id\":12,\"result\":\"0123456789\"}");
+		ByteBuffer data = ByteBuffer.allocate(large.length + oversized.length);
+		data.put(large).put(oversized).flip();
+		List<String> messages = new ArrayList<>();
+		LspMessageReader reader = new LspMessageReader(null);
+		reader.setLargeMessageHandler(new LspLargeMessageHandler() {
+			@Override
+			public void handleLargeMessage(byte[] content, int length) {
+				messages.add("large " + new String(content, 0, length, StandardCharsets.UTF_8));
+			}
+
+			@Override
+			public void handleOversizedMessage(LspMessageScanner scanner, long length) {
+				messages.add("oversized " + scanner.getId() + " " + scanner.getIdStart() + " "
+						+ scanner.hasMethod());
+			}
+		}, 40, 50);
+		reader.process(data, messages::add);
+
+		assertThat(messages).containsExactly(
+				"large {\"jsonrpc\":\"2.0\",\"result\":{\"id\":5},\"id\":\"a\"}",
+				"oversized 12 26 false");
+	}
+
+	@Test
+	public void scannerFindsTheMethodAndTheUriOfTheParams() throws Exception {
+		byte[] message = ("{\"params\":{\"items\":[{\"uri\":\"a\"}],\"uri\":\"file:\\/b\"},"
+				+ "\"method\":\"textDocument/publishDiagnostics\"}").getBytes(StandardCharsets.UTF_8);
+		LspMessageScanner scanner = new LspMessageScanner();
+		scanner.feed(message, 0, message.length);
+
+		assertThat(scanner.getMethod()).isEqualTo("\"textDocument/publishDiagnostics\"");
+		assertThat(scanner.getUri()).isEqualTo("\"file:\\/b\"");
+		assertThat(scanner.getId()).isNull();
+	}
+
+}
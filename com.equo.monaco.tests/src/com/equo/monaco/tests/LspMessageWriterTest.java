@@ -0,0 +1,96 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.equo.monaco.lsp.LspMessageWriter;
+
+public class LspMessageWriterTest {
+
+	@Test
+	public void messagesAreRejectedOnceTheStreamFails() throws Exception {
+		CountDownLatch breaks = new CountDownLatch(1);
+		OutputStream broken = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				try {
+					breaks.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("Broken pipe");
+			}
+		};
+		LspMessageWriter writer = new LspMessageWriter(broken, 4);
+		CountDownLatch failed = new CountDownLatch(1);
+		writer.setFailureHandler(failed::countDown);
+
+		assertThat(writer.send("{\"id\":1}")).isTrue();
+		breaks.countDown();
+		assertThat(failed.await(5, TimeUnit.SECONDS)).isTrue();
+		long start = System.currentTimeMillis();
+		assertThat(writer.send("{\"id\":2}")).isFalse();
+		assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+		assertThat(writer.hasFailed()).isTrue();
+		writer.close();
+	}
+
+	@Test
+	public void fullQueueFailsTheWriterInsteadOfDroppingMessages() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		OutputStream stuck = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		};
+		LspMessageWriter writer = new LspMessageWriter(stuck, 1);
+		CountDownLatch failed = new CountDownLatch(1);
+		writer.setFailureHandler(failed::countDown);
+
+		boolean accepted = true;
+		for (int i = 0; i < 4 && accepted; i++) {
+			accepted = writer.send("{\"id\":" + i + "}");
+		}
+
+		assertThat(accepted).isFalse();
+		assertThat(failed.getCount()).isZero();
+		assertThat(writer.send("{\"method\":\"textDocument/didChange\"}")).isFalse();
+		release.countDown();
+		writer.close();
+	}
+
+}
@@ -0,0 +1,258 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.equo.monaco.lsp.LspMessageReader;
+import com.equo.monaco.lsp.LspMessageWriter;
+import com.equo.monaco.lsp.LspWsEndpoint;
+import com.equo.monaco.lsp.SocketLspProxy;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class SocketLspProxyTest {
+	private static final JsonParser PARSER = new JsonParser();
+	private static final String URI = "file:///project/main.c";
+
+	private ServerSocket serverSocket;
+	private final BlockingQueue<Socket> connections = new LinkedBlockingQueue<>();
+	private final BlockingQueue<String> serverMessages = new LinkedBlockingQueue<>();
+	private SocketLspProxy proxy;
+	private EditorClient editor;
+
+	@Before
+	public void before() throws Exception {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptThread = new Thread(() -> {
+			try {
+				while (true) {
+					Socket socket = serverSocket.accept();
+					connections.add(socket);
+					startEchoServer(socket);
+				}
+			} catch (IOException e) {
+				// The server socket was closed
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+
+		proxy = new SocketLspProxy("127.0.0.1", serverSocket.getLocalPort());
+		proxy.startServer();
+		editor = new EditorClient(new URI(proxy.getUrl("editor")));
+		assertThat(editor.connectBlocking(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@After
+	public void after() throws Exception {
+		editor.closeBlocking();
+		proxy.stopServer();
+		serverSocket.close();
+		for (Socket socket : connections) {
+			socket.close();
+		}
+	}
+
+	@AfterClass
+	public static void afterClass() {
+		LspWsEndpoint.stopInstance();
+	}
+
+	/**
+	 * Answers every request with its params, like a language server would
+	 * answer with its result.
+	 */
+	private void startEchoServer(Socket socket) throws IOException {
+		LspMessageReader reader = new LspMessageReader(socket.getInputStream());
+		LspMessageWriter writer = new LspMessageWriter(socket.getOutputStream());
+		Thread thread = new Thread(() -> {
+			try {
+				while (reader.read(message -> {
+					serverMessages.add(message);
+					JsonObject json = PARSER.parse(message).getAsJsonObject();
+					if (json.has("id") && json.has("method")) {
+						JsonElement params = json.get("params");
+						writer.send(response(json.get("id"), (params != null) ? params : JsonNull.INSTANCE)
+								.toString());
+					}
+				})) {
+					// Every message is answered while reading
+				}
+			} catch (IOException e) {
+				// The connection was closed
+			}
+			writer.close();
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static JsonObject response(JsonElement id, JsonElement result) {
+		JsonObject response = new JsonObject();
+		response.addProperty("jsonrpc", "2.0");
+		response.add("id", id);
+		response.add("result", result);
+		return response;
+	}
+
+	private static JsonObject message(Integer id, String method, JsonObject params) {
+		JsonObject message = new JsonObject();
+		message.addProperty("jsonrpc", "2.0");
+		if (id != null) {
+			message.addProperty("id", id);
+		}
+		message.addProperty("method", method);
+		message.add("params", params);
+		return message;
+	}
+
+	private static JsonObject initializeParams() {
+		JsonObject params = new JsonObject();
+		params.add("processId", JsonNull.INSTANCE);
+		params.add("rootUri", JsonNull.INSTANCE);
+		params.add("capabilities", new JsonObject());
+		return params;
+	}
+
+	private static JsonObject didOpenParams(String text) {
+		JsonObject textDocument = new JsonObject();
+		textDocument.addProperty("uri", URI);
+		textDocument.addProperty("languageId", "c");
+		textDocument.addProperty("version", 1);
+		textDocument.addProperty("text", text);
+		JsonObject params = new JsonObject();
+		params.add("textDocument", textDocument);
+		return params;
+	}
+
+	private static JsonObject definitionParams() {
+		JsonObject textDocument = new JsonObject();
+		textDocument.addProperty("uri", URI);
+		JsonObject params = new JsonObject();
+		params.add("textDocument", textDocument);
+		return params;
+	}
+
+	private JsonObject nextServerMessage() throws InterruptedException {
+		String message = serverMessages.poll(10, TimeUnit.SECONDS);
+		assertThat(message).isNotNull();
+		return PARSER.parse(message).getAsJsonObject();
+	}
+
+	private void initialize() throws InterruptedException {
+		editor.send(message(1, "initialize", initializeParams()).toString());
+		assertThat(editor.next()).isEqualTo(response(PARSER.parse("1"), initializeParams()));
+		editor.send(message(null, "initialized", new JsonObject()).toString());
+		editor.send(message(null, "textDocument/didOpen", didOpenParams("int main;")).toString());
+	}
+
+	@Test
+	public void requestsAreAnsweredThroughTheSocket() throws Exception {
+		initialize();
+
+		editor.send(message(2, "textDocument/definition", definitionParams()).toString());
+
+		assertThat(editor.next()).isEqualTo(response(PARSER.parse("2"), definitionParams()));
+		assertThat(proxy.isRunning()).isTrue();
+		assertThat(proxy.getReconnects()).isZero();
+	}
+
+	@Test
+	public void lostConnectionIsRestoredWithTheOpenDocuments() throws Exception {
+		initialize();
+		JsonObject didOpen = nextServerMessage();
+		while (!didOpen.get("method").getAsString().equals("textDocument/didOpen")) {
+			didOpen = nextServerMessage();
+		}
+
+		connections.poll(5, TimeUnit.SECONDS).close();
+
+		Socket reconnected = connections.poll(10, TimeUnit.SECONDS);
+		assertThat(reconnected).isNotNull();
+		assertThat(nextServerMessage().get("method").getAsString()).isEqualTo("initialize");
+		JsonObject restored = nextServerMessage();
+		while (!restored.get("method").getAsString().equals("textDocument/didOpen")) {
+			restored = nextServerMessage();
+		}
+		assertThat(restored.get("params")).isEqualTo(didOpenParams("int main;"));
+
+		editor.send(message(3, "textDocument/definition", definitionParams()).toString());
+		assertThat(editor.next()).isEqualTo(response(PARSER.parse("3"), definitionParams()));
+		assertThat(proxy.getReconnects()).isEqualTo(1);
+	}
+
+	/**
+	 * Editor connected to the proxy, which keeps the messages it receives.
+	 */
+	private static class EditorClient extends WebSocketClient {
+		private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+		private EditorClient(URI uri) {
+			super(uri);
+		}
+
+		private JsonObject next() throws InterruptedException {
+			String message = messages.poll(10, TimeUnit.SECONDS);
+			assertThat(message).isNotNull();
+			return PARSER.parse(message).getAsJsonObject();
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake) {
+		}
+
+		@Override
+		public void onMessage(String message) {
+			messages.add(message);
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote) {
+		}
+
+		@Override
+		public void onError(Exception ex) {
+		}
+	}
+
+}
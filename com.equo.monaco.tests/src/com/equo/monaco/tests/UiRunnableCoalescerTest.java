@@ -0,0 +1,96 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.equo.monaco.UiRunnableCoalescer;
+
+public class UiRunnableCoalescerTest {
+	private final List<Runnable> uiQueue = new ArrayList<>();
+	private final UiRunnableCoalescer coalescer = new UiRunnableCoalescer(uiQueue::add);
+	private final List<String> applied = new ArrayList<>();
+
+	private void runUiQueue() {
+		List<Runnable> queued = new ArrayList<>(uiQueue);
+		uiQueue.clear();
+		queued.forEach(Runnable::run);
+	}
+
+	@Test
+	public void pendingUpdatesOfTheSameKindRunOnceWithTheLatestValue() {
+		coalescer.post("selection", "first", applied::add);
+		coalescer.post("selection", "second", applied::add);
+		coalescer.post("dirty", "dirty", applied::add);
+		coalescer.post("selection", "third", applied::add);
+
+		assertThat(uiQueue).hasSize(2);
+		runUiQueue();
+
+		assertThat(applied).containsExactly("third", "dirty");
+		assertThat(coalescer.getPosted()).isEqualTo(4);
+		assertThat(coalescer.getExecuted()).isEqualTo(2);
+	}
+
+	@Test
+	public void updatePostedAfterTheLastOneRanIsScheduledAgain() {
+		coalescer.post("selection", "first", applied::add);
+		runUiQueue();
+		coalescer.post("selection", "second", applied::add);
+		runUiQueue();
+
+		assertThat(applied).containsExactly("first", "second");
+		assertThat(coalescer.getPosted()).isEqualTo(2);
+		assertThat(coalescer.getExecuted()).isEqualTo(2);
+	}
+
+	@Test
+	public void flushRunsThePendingUpdateRightAway() {
+		coalescer.post("save", "contents", applied::add);
+		coalescer.flush("save");
+
+		assertThat(applied).containsExactly("contents");
+		runUiQueue();
+		assertThat(applied).containsExactly("contents");
+		assertThat(coalescer.getExecuted()).isEqualTo(1);
+	}
+
+	@Test
+	public void disposeDiscardsThePendingAndTheNextUpdates() {
+		coalescer.post("selection", "first", applied::add);
+		coalescer.dispose();
+		coalescer.post("selection", "second", applied::add);
+		runUiQueue();
+
+		assertThat(applied).isEmpty();
+		assertThat(coalescer.getPosted()).isEqualTo(1);
+		assertThat(coalescer.getExecuted()).isZero();
+	}
+
+}
@@ -0,0 +1,95 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.tests.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Language server run in its own process by the tests. It answers the
+ * initialize request, answers null to the rest of the requests, and exits
+ * once it answers the shutdown request.
+ */
+public class FakeLanguageServer {
+	private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\"[^\"]*\"|-?\\d+)");
+	private static final Pattern METHOD = Pattern.compile("\"method\"\\s*:\\s*\"([^\"]*)\"");
+
+	public static void main(String[] args) throws IOException {
+		DataInputStream in = new DataInputStream(System.in);
+		OutputStream out = System.out;
+		String message;
+		while ((message = read(in)) != null) {
+			Matcher method = METHOD.matcher(message);
+			if (!method.find()) {
+				continue;
+			}
+			Matcher id = ID.matcher(message);
+			if (method.group(1).equals("exit")) {
+				System.exit(0);
+			} else if (id.find()) {
+				String result = method.group(1).equals("initialize") ? "{\"capabilities\":{}}" : "null";
+				write(out, "{\"jsonrpc\":\"2.0\",\"id\":" + id.group(1) + ",\"result\":" + result + "}");
+				if (method.group(1).equals("shutdown")) {
+					System.exit(0);
+				}
+			}
+		}
+	}
+
+	private static String read(DataInputStream in) throws IOException {
+		int length = -1;
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int read;
+		while ((read = in.read()) != -1) {
+			if (read != '\n') {
+				line.write(read);
+				continue;
+			}
+			String header = line.toString(StandardCharsets.US_ASCII.name()).trim();
+			line.reset();
+			if (header.isEmpty()) {
+				byte[] content = new byte[length];
+				in.readFully(content);
+				return new String(content, StandardCharsets.UTF_8);
+			}
+			if (header.toLowerCase().startsWith("content-length:")) {
+				length = Integer.parseInt(header.substring("content-length:".length()).trim());
+			}
+		}
+		return null;
+	}
+
+	private static void write(OutputStream out, String message) throws IOException {
+		byte[] content = message.getBytes(StandardCharsets.UTF_8);
+		out.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.write(content);
+		out.flush();
+	}
+
+}
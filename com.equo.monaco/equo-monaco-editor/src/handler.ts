@@ -52,7 +52,10 @@ export class EquoMonacoEditor {
   private notifyChangeCallback!: Function;
   private elemdiv: HTMLElement;
   private sendChangesToJavaSide: boolean = false;
+  private sendDeltasToJavaSide: boolean = false;
   private shortcutsAdded: boolean = false;
+  private findAllReferencesAdded: boolean = false;
+  private queryHandlers: { [query: string]: (params: any) => any } = {};
 
   /**
    * @name EquoMonacoEditor
@@ -93,15 +96,7 @@ export class EquoMonacoEditor {
    * @returns {void}
    */
   public dispose(): void {
-    if (this.lspws) {
-      //@ts-ignore
-      this.lspws.close(1000, "", {
-        keepClosed: true,
-        fastClose: true,
-        delay: 0,
-      });
-    }
-    if (this.languageClient) this.languageClient.stop();
+    this.disconnectLsp();
     this.model.dispose();
     this.editor.dispose();
     this.comm.send(this.namespace + "_disposeEditor");
@@ -140,6 +135,16 @@ export class EquoMonacoEditor {
   public setFilePathChangedListener(callback: (filePath: string, fileName: string) => {}) {
     this.filePathChangedCallback = callback;
   }
+  /**
+   * Sets the function that answers a query made from the Java side with
+   * EquoMonacoEditor.query.
+   * @param {string} query - Name of the query.
+   * @param {function} handler - Receives the query params and returns the result.
+   * @returns {void}
+   */
+  public setQueryHandler(query: string, handler: (params: any) => any): void {
+    this.queryHandlers[query] = handler;
+  }
   /**
    * Sets a custom action when file changes are reported.
    * @param {funtion} callback
@@ -170,6 +175,18 @@ export class EquoMonacoEditor {
     return language;
   }
 
+  private disconnectLsp(): void {
+    if (this.lspws) {
+      //@ts-ignore
+      this.lspws.close(1000, "", {
+        keepClosed: true,
+        fastClose: true,
+        delay: 0,
+      });
+    }
+    if (this.languageClient) this.languageClient.stop();
+  }
+
   private connectLsp(
     lspPath: string | undefined,
     rootUri: string | undefined,
@@ -330,19 +347,7 @@ export class EquoMonacoEditor {
       },
     });
     if (bindEclipseLsp) {
-      this.editor.addAction({
-        id: "findAllReferences",
-        label: "Find All References",
-        keybindings: [
-          monaco.KeyMod.Alt | monaco.KeyMod.Shift | monaco.KeyCode.F12,
-        ],
-        precondition: "editorHasSelection",
-        contextMenuGroupId: "navigation",
-        contextMenuOrder: 6.0,
-        run: function (editor: monaco.editor.IStandaloneCodeEditor): void {
-          comm.send(namespace + "_findAllReferences");
-        },
-      });
+      this.addFindAllReferencesAction();
     }
 
     StandaloneCodeEditorServiceImpl.prototype.doOpenEditor = function (
@@ -360,6 +365,27 @@ export class EquoMonacoEditor {
       return null;
     };
   }
+  private addFindAllReferencesAction(): void {
+    if (this.findAllReferencesAdded) {
+      return;
+    }
+    this.findAllReferencesAdded = true;
+    let comm = this.comm;
+    let namespace = this.namespace;
+    this.editor.addAction({
+      id: "findAllReferences",
+      label: "Find All References",
+      keybindings: [
+        monaco.KeyMod.Alt | monaco.KeyMod.Shift | monaco.KeyCode.F12,
+      ],
+      precondition: "editorHasSelection",
+      contextMenuGroupId: "navigation",
+      contextMenuOrder: 6.0,
+      run: function (editor: monaco.editor.IStandaloneCodeEditor): void {
+        comm.send(namespace + "_findAllReferences");
+      },
+    });
+  }
   /**
    * Initializes the EquoMonacoEditor instance.
    * @param {HTMLElement} element - Element on which the editor will be placed
@@ -410,9 +436,11 @@ export class EquoMonacoEditor {
           this.connectLsp(values.lspPath, values.rootUri, language);
 
           this.wasCreated = true;
-          this.editor.onDidChangeModelContent(() => {
-            this.notifyChanges();
-          });
+          this.editor.onDidChangeModelContent(
+            (e: monaco.editor.IModelContentChangedEvent) => {
+              this.notifyChanges(e);
+            }
+          );
         }
       }
     );
@@ -492,24 +520,58 @@ export class EquoMonacoEditor {
     return undefined;
   }
 
+  private getSelectionOffsets(selection: monaco.IRange): {
+    offset: number;
+    length: number;
+  } {
+    let offsetStart = this.model.getOffsetAt({
+      lineNumber: selection.startLineNumber,
+      column: selection.startColumn,
+    });
+    let offsetEnd = this.model.getOffsetAt({
+      lineNumber: selection.endLineNumber,
+      column: selection.endColumn,
+    });
+    return { offset: offsetStart, length: offsetEnd - offsetStart };
+  }
+
   private bindEquoFunctions(): void {
     this.editor.onDidChangeCursorSelection((e: any) => {
-      let selection = e.selection;
-      let offsetStart = this.model.getOffsetAt({
-        lineNumber: selection.startLineNumber,
-        column: selection.startColumn,
-      });
-      let offsetEnd = this.model.getOffsetAt({
-        lineNumber: selection.endLineNumber,
-        column: selection.endColumn,
-      });
-      let length = offsetEnd - offsetStart;
-      this.comm.send(this.namespace + "_selection", {
-        offset: offsetStart,
-        length: length,
-      });
+      this.comm.send(
+        this.namespace + "_selection",
+        this.getSelectionOffsets(e.selection)
+      );
     });
 
+    this.setQueryHandler("contents", () => this.model.getValue());
+    this.setQueryHandler("versionId", () => this.model.getVersionId());
+    this.setQueryHandler("selection", () => {
+      let selection = this.editor.getSelection();
+      return selection ? this.getSelectionOffsets(selection) : null;
+    });
+    this.setQueryHandler("viewState", () =>
+      JSON.stringify(this.editor.saveViewState())
+    );
+
+    this.comm.on(
+      this.namespace + "_query",
+      (values: { id: number; query: string; params?: any }) => {
+        let handler = this.queryHandlers[values.query];
+        let response: { id: number; result?: any; error?: string } = {
+          id: values.id,
+        };
+        try {
+          if (!handler) {
+            throw new Error("Unknown query " + values.query);
+          }
+          response.result = handler(values.params);
+        } catch (e) {
+          response.error = String(e);
+        }
+        this.comm.send(this.namespace + "_queryResponse", response);
+      }
+    );
+
     this.comm.on(
       this.namespace + "_doReinitialization",
       (values: {
@@ -525,21 +587,30 @@ export class EquoMonacoEditor {
 
         this.editor.setModel(this.model);
         this.setTextLabel("");
+        // The new model starts its own versions
+        this.sendContentResync();
 
-        if (this.lspws) {
-          //@ts-ignore
-          this.lspws.close(1000, "", {
-            keepClosed: true,
-            fastClose: true,
-            delay: 0,
-          });
-        }
-        if (this.languageClient) this.languageClient.stop();
+        this.disconnectLsp();
 
         this.connectLsp(values.lspPath, values.rootUri, language);
       }
     );
 
+    this.comm.on(
+      this.namespace + "_connectLsp",
+      (values: {
+        lspPath: string;
+        rootUri?: string;
+        bindEclipseLsp: boolean;
+      }) => {
+        this.disconnectLsp();
+        if (values.bindEclipseLsp) {
+          this.addFindAllReferencesAction();
+        }
+        this.connectLsp(values.lspPath, values.rootUri, this.model.getModeId());
+      }
+    );
+
     this.comm.on(
       this.namespace + "_filePathChanged",
       (values: { path: string; name: string }) => {
@@ -555,6 +626,7 @@ export class EquoMonacoEditor {
       this.editor.getAction("actions.find").run();
     });
 
+    // Deprecated, kept for the callers of the old protocol. Use the contents query
     this.comm.on(this.namespace + "_getContents", () => {
       this.comm.send(this.namespace + "_doGetContents", {
         contents: this.editor.getValue(),
@@ -578,6 +650,15 @@ export class EquoMonacoEditor {
       this.sendChangesToJavaSide = true;
     });
 
+    this.comm.on(this.namespace + "_subscribeModelDeltas", () => {
+      this.sendDeltasToJavaSide = true;
+      this.sendContentResync();
+    });
+
+    this.comm.on(this.namespace + "_resyncContent", () => {
+      this.sendContentResync();
+    });
+
     this.comm.on(this.namespace + "_doCopy", () => {
       document.execCommand("copy");
     });
@@ -654,7 +735,7 @@ export class EquoMonacoEditor {
     );
   }
 
-  private notifyChanges(): void {
+  private notifyChanges(e?: monaco.editor.IModelContentChangedEvent): void {
     if (this.sendChangesToJavaSide) {
       this.comm.send(this.namespace + "_changesNotification", {
         isDirty:
@@ -664,8 +745,39 @@ export class EquoMonacoEditor {
         content: this.editor.getValue(),
       });
     }
+    if (this.sendDeltasToJavaSide) {
+      // Only the changed ranges are sent, in the order they must be applied
+      let changes = e
+        ? e.changes.map((change) => ({
+            rangeOffset: change.rangeOffset,
+            rangeLength: change.rangeLength,
+            text: change.text,
+            startLineNumber: change.range.startLineNumber,
+            startColumn: change.range.startColumn,
+            endLineNumber: change.range.endLineNumber,
+            endColumn: change.range.endColumn,
+          }))
+        : [];
+      this.comm.send(this.namespace + "_deltasNotification", {
+        isDirty:
+          this.lastSavedVersionId !== this.model.getAlternativeVersionId(),
+        canRedo: (this.model as any).canRedo(),
+        canUndo: (this.model as any).canUndo(),
+        versionId: this.model.getVersionId(),
+        changes: changes,
+      });
+    }
     this.notifyChangeCallback();
   }
+
+  private sendContentResync(): void {
+    if (this.sendDeltasToJavaSide) {
+      this.comm.send(this.namespace + "_contentResync", {
+        versionId: this.model.getVersionId(),
+        content: this.model.getValue(),
+      });
+    }
+  }
 }
 /**
  * @namespace
@@ -697,15 +809,18 @@ export namespace EquoMonaco {
    * @name addLspServer
    * @param {string[]} executionParameters - The parameters needed to start the lsp server through stdio. Example: ["html-languageserver", "--stdio"].
    * @param {string[]} extensions - A collection of extensions for what the editor will use the given lsp server. The extensions must not have the initial dot. Example: ["php", "php4"].
+   * @param {number} [warmServers] - Optional. The amount of servers to keep started in background, so the next editors don't wait for them to start.
    * @returns {void}
    */
   export function addLspServer(
     executionParameters: Array<string>,
-    extensions: Array<string>
+    extensions: Array<string>,
+    warmServers?: number
   ): void {
     comm.send("_addLspServer", {
       executionParameters: executionParameters,
       extensions: extensions,
+      warmServers: warmServers,
     });
   }
   /**
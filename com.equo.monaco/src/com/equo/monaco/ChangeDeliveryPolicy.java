@@ -0,0 +1,99 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+/**
+ * How the changes of an editor are delivered to a subscriber. Cheap listeners
+ * can receive every change, while expensive ones can receive them debounced,
+ * or only when a flag changes its value.
+ */
+public final class ChangeDeliveryPolicy {
+  /**
+   * Kind of delivery.
+   */
+  public enum Mode {
+    /** Every change is delivered as soon as it arrives. */
+    IMMEDIATE,
+    /** Changes are held while more arrive, and delivered together. */
+    DEBOUNCED,
+    /** A value is delivered only if it differs from the last one delivered. */
+    ON_TRANSITION
+  }
+
+  private static final ChangeDeliveryPolicy IMMEDIATE =
+      new ChangeDeliveryPolicy(Mode.IMMEDIATE, 0, 0);
+  private static final ChangeDeliveryPolicy ON_TRANSITION =
+      new ChangeDeliveryPolicy(Mode.ON_TRANSITION, 0, 0);
+
+  private final Mode mode;
+  private final long delay;
+  private final long maxDelay;
+
+  private ChangeDeliveryPolicy(Mode mode, long delay, long maxDelay) {
+    this.mode = mode;
+    this.delay = delay;
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * Delivers every change as soon as it arrives.
+   */
+  public static ChangeDeliveryPolicy immediate() {
+    return IMMEDIATE;
+  }
+
+  /**
+   * Holds the changes until none arrives for the given delay, but never longer
+   * than the maximum delay, and delivers them together.
+   * @param delay    milliseconds without changes after which they are
+   *                 delivered
+   * @param maxDelay maximum milliseconds that a change is held
+   */
+  public static ChangeDeliveryPolicy debounced(long delay, long maxDelay) {
+    if (delay <= 0) {
+      return IMMEDIATE;
+    }
+    return new ChangeDeliveryPolicy(Mode.DEBOUNCED, delay, Math.max(delay, maxDelay));
+  }
+
+  /**
+   * Delivers a flag only when its value changes. Contents are delivered
+   * immediately.
+   */
+  public static ChangeDeliveryPolicy onTransition() {
+    return ON_TRANSITION;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public long getDelay() {
+    return delay;
+  }
+
+  public long getMaxDelay() {
+    return maxDelay;
+  }
+
+}
@@ -0,0 +1,132 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the values submitted by an editor to one subscriber following its
+ * {@link ChangeDeliveryPolicy}. The values held by a debounced subscriber are
+ * merged into one before being delivered.
+ */
+class ChangeDispatcher<T> {
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Editor changes");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final Consumer<T> subscriber;
+  private final ChangeDeliveryPolicy policy;
+  private final BinaryOperator<T> merger;
+  private T pending = null;
+  private long firstTime;
+  private ScheduledFuture<?> flushTask = null;
+  private T delivered = null;
+
+  /**
+   * Parameterized constructor.
+   * @param subscriber receives the values
+   * @param policy     how the values are delivered
+   * @param merger     merges a held value with a newer one
+   */
+  ChangeDispatcher(Consumer<T> subscriber, ChangeDeliveryPolicy policy, BinaryOperator<T> merger) {
+    this.subscriber = subscriber;
+    this.policy = policy;
+    this.merger = merger;
+  }
+
+  /**
+   * Creates a dispatcher of flags, where only the latest value matters.
+   */
+  static ChangeDispatcher<Boolean> forFlag(Consumer<Boolean> subscriber,
+      ChangeDeliveryPolicy policy) {
+    return new ChangeDispatcher<>(subscriber, policy, (held, newer) -> newer);
+  }
+
+  void submit(T value) {
+    switch (policy.getMode()) {
+      case ON_TRANSITION:
+        synchronized (this) {
+          if (Objects.equals(delivered, value)) {
+            return;
+          }
+          delivered = value;
+          subscriber.accept(value);
+        }
+        break;
+      case DEBOUNCED:
+        hold(value);
+        break;
+      default:
+        subscriber.accept(value);
+        break;
+    }
+  }
+
+  private synchronized void hold(T value) {
+    long now = System.currentTimeMillis();
+    if (flushTask == null) {
+      firstTime = now;
+      pending = value;
+    } else {
+      flushTask.cancel(false);
+      pending = merger.apply(pending, value);
+    }
+    long flushDelay = Math.min(policy.getDelay(), firstTime + policy.getMaxDelay() - now);
+    flushTask = SCHEDULER.schedule(this::flush, Math.max(0, flushDelay), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Delivers the held value, if any.
+   */
+  synchronized void flush() {
+    if (flushTask == null) {
+      return;
+    }
+    flushTask.cancel(false);
+    flushTask = null;
+    T value = pending;
+    pending = null;
+    subscriber.accept(value);
+  }
+
+  /**
+   * Discards the held value, if any.
+   */
+  synchronized void discard() {
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+      pending = null;
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Content listener that delivers the changes to a subscriber following its
+ * {@link ChangeDeliveryPolicy}. The changes held by a debounced subscriber are
+ * delivered as one list, in the order they must be applied, and a resync
+ * discards the changes held before it. It is returned by
+ * {@link EquoMonacoEditor#subscribeContent(EditorContentListener, ChangeDeliveryPolicy)}
+ * so the subscriber can take the held changes before it needs the contents.
+ */
+public class DispatchedContentListener implements EditorContentListener {
+  private final ChangeDispatcher<ContentUpdate> dispatcher;
+
+  DispatchedContentListener(EditorContentListener subscriber, ChangeDeliveryPolicy policy) {
+    this.dispatcher = new ChangeDispatcher<>(update -> update.deliver(subscriber),
+        (policy.getMode() == ChangeDeliveryPolicy.Mode.DEBOUNCED) ? policy
+            : ChangeDeliveryPolicy.immediate(),
+        ContentUpdate::merge);
+  }
+
+  /**
+   * Delivers the held changes, if any, in the calling thread.
+   */
+  public void flush() {
+    dispatcher.flush();
+  }
+
+  void discard() {
+    dispatcher.discard();
+  }
+
+  @Override
+  public void contentChanged(int versionId, List<EditorContentChange> changes) {
+    dispatcher.submit(new ContentUpdate(null, -1, versionId, changes));
+  }
+
+  @Override
+  public void contentResynced(int versionId, String content) {
+    dispatcher.submit(new ContentUpdate(content, versionId, versionId,
+        Collections.<EditorContentChange>emptyList()));
+  }
+
+  private static class ContentUpdate {
+    private final String content;
+    private final int contentVersion;
+    private final int version;
+    private final List<EditorContentChange> changes;
+
+    private ContentUpdate(String content, int contentVersion, int version,
+        List<EditorContentChange> changes) {
+      this.content = content;
+      this.contentVersion = contentVersion;
+      this.version = version;
+      this.changes = changes;
+    }
+
+    private ContentUpdate merge(ContentUpdate newer) {
+      if (newer.content != null) {
+        return newer;
+      }
+      List<EditorContentChange> merged = new ArrayList<>(changes.size() + newer.changes.size());
+      merged.addAll(changes);
+      merged.addAll(newer.changes);
+      return new ContentUpdate(content, contentVersion, newer.version, merged);
+    }
+
+    private void deliver(EditorContentListener subscriber) {
+      if (content != null) {
+        subscriber.contentResynced(contentVersion, content);
+      }
+      if (!changes.isEmpty()) {
+        subscriber.contentChanged(version, changes);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A change of the editor contents, as reported by Monaco. The range is the
+ * replaced text in the contents previous to the change.
+ */
+public class EditorContentChange {
+  private final int rangeOffset;
+  private final int rangeLength;
+  private final String text;
+  private final int startLineNumber;
+  private final int startColumn;
+  private final int endLineNumber;
+  private final int endColumn;
+
+  /**
+   * Parameterized constructor. Lines and columns start at 1.
+   */
+  public EditorContentChange(int rangeOffset, int rangeLength, String text, int startLineNumber,
+      int startColumn, int endLineNumber, int endColumn) {
+    this.rangeOffset = rangeOffset;
+    this.rangeLength = rangeLength;
+    this.text = text;
+    this.startLineNumber = startLineNumber;
+    this.startColumn = startColumn;
+    this.endLineNumber = endLineNumber;
+    this.endColumn = endColumn;
+  }
+
+  static EditorContentChange fromJson(JsonObject change) {
+    return new EditorContentChange(change.get("rangeOffset").getAsInt(),
+        change.get("rangeLength").getAsInt(), change.get("text").getAsString(),
+        change.get("startLineNumber").getAsInt(), change.get("startColumn").getAsInt(),
+        change.get("endLineNumber").getAsInt(), change.get("endColumn").getAsInt());
+  }
+
+  /**
+   * Gets the offset where the replaced text starts.
+   * @return the offset, in UTF-16 code units
+   */
+  public int getRangeOffset() {
+    return rangeOffset;
+  }
+
+  /**
+   * Gets the length of the replaced text.
+   * @return the length, in UTF-16 code units
+   */
+  public int getRangeLength() {
+    return rangeLength;
+  }
+
+  /**
+   * Gets the new text of the range.
+   * @return the text, empty if the range was deleted
+   */
+  public String getText() {
+    return text;
+  }
+
+  public int getStartLineNumber() {
+    return startLineNumber;
+  }
+
+  public int getStartColumn() {
+    return startColumn;
+  }
+
+  public int getEndLineNumber() {
+    return endLineNumber;
+  }
+
+  public int getEndColumn() {
+    return endColumn;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + rangeOffset + "," + (rangeOffset + rangeLength) + ") -> \"" + text + "\"";
+  }
+
+}
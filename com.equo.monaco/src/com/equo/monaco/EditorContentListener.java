@@ -0,0 +1,53 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+import java.util.List;
+
+/**
+ * Listener of the changes of the editor contents, see
+ * {@link EquoMonacoEditor#subscribeChanges(java.util.function.Consumer,
+ * java.util.function.Consumer, java.util.function.Consumer, EditorContentListener)}.
+ * Only the changed ranges are received, and the whole contents only when the
+ * listener must synchronize with the editor again.
+ */
+public interface EditorContentListener {
+
+  /**
+   * Called when the editor contents change.
+   * @param versionId the version of the contents after the changes
+   * @param changes   the changes, to be applied in order to the contents of the
+   *                  previous version
+   */
+  void contentChanged(int versionId, List<EditorContentChange> changes);
+
+  /**
+   * Called with the whole editor contents when the listener is subscribed, the
+   * model of the editor is replaced, or a version was missed. Replaces any
+   * contents known by the listener.
+   * @param versionId the version of the contents
+   * @param content   the editor contents
+   */
+  void contentResynced(int versionId, String content);
+
+}
@@ -0,0 +1,161 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copy of the editor contents kept on the Java side, updated with the changes
+ * sent by the editor. The text is kept in a piece table: the contents received
+ * on the last resync are never modified and the inserted text is appended to a
+ * second buffer, so each change costs the same regardless of the size of the
+ * document. The whole text is only built when it is read.
+ */
+public class EditorDocumentMirror implements EditorContentListener {
+  private static final int MAX_PIECES = 2048;
+
+  private String original = "";
+  private final StringBuilder added = new StringBuilder();
+  private final List<Piece> pieces = new ArrayList<>();
+  private int length = 0;
+  private int version = -1;
+  private String text = "";
+
+  @Override
+  public synchronized void contentChanged(int versionId, List<EditorContentChange> changes) {
+    for (EditorContentChange change : changes) {
+      replace(change.getRangeOffset(), change.getRangeLength(), change.getText());
+    }
+    version = versionId;
+  }
+
+  @Override
+  public synchronized void contentResynced(int versionId, String content) {
+    reset(content);
+    version = versionId;
+  }
+
+  /**
+   * Replaces a range of the text.
+   * @param offset   the start of the range
+   * @param removed  the length of the range
+   * @param inserted the new text of the range
+   */
+  public synchronized void replace(int offset, int removed, String inserted) {
+    int start = Math.max(0, Math.min(offset, length));
+    int end = start + Math.max(0, Math.min(removed, length - start));
+    int index = split(start);
+    pieces.subList(index, split(end)).clear();
+    if (!inserted.isEmpty()) {
+      Piece previous = (index > 0) ? pieces.get(index - 1) : null;
+      if (previous != null && previous.added
+          && previous.start + previous.length == added.length()) {
+        // Typing extends the last inserted piece
+        previous.length += inserted.length();
+      } else {
+        pieces.add(index, new Piece(true, added.length(), inserted.length()));
+      }
+      added.append(inserted);
+    }
+    length += inserted.length() - (end - start);
+    text = null;
+    if (pieces.size() > MAX_PIECES) {
+      reset(getText());
+    }
+  }
+
+  /**
+   * Splits the piece that contains the given offset, so a piece starts there.
+   * @return the index of the piece that starts at the offset
+   */
+  private int split(int offset) {
+    int position = 0;
+    for (int i = 0; i < pieces.size(); i++) {
+      Piece piece = pieces.get(i);
+      if (position == offset) {
+        return i;
+      }
+      if (offset < position + piece.length) {
+        int head = offset - position;
+        pieces.add(i + 1, new Piece(piece.added, piece.start + head, piece.length - head));
+        piece.length = head;
+        return i + 1;
+      }
+      position += piece.length;
+    }
+    return pieces.size();
+  }
+
+  private void reset(String content) {
+    original = content;
+    added.setLength(0);
+    pieces.clear();
+    if (!content.isEmpty()) {
+      pieces.add(new Piece(false, 0, content.length()));
+    }
+    length = content.length();
+    text = content;
+  }
+
+  /**
+   * Gets the text of the mirrored contents.
+   * @return the text
+   */
+  public synchronized String getText() {
+    if (text == null) {
+      StringBuilder builder = new StringBuilder(length);
+      for (Piece piece : pieces) {
+        CharSequence buffer = piece.added ? added : original;
+        builder.append(buffer, piece.start, piece.start + piece.length);
+      }
+      text = builder.toString();
+    }
+    return text;
+  }
+
+  public synchronized int getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the version of the editor model that the mirrored contents match.
+   * @return the version, or -1 if no contents were received yet
+   */
+  public synchronized int getVersion() {
+    return version;
+  }
+
+  private static class Piece {
+    private final boolean added;
+    private final int start;
+    private int length;
+
+    private Piece(boolean added, int start, int length) {
+      this.added = added;
+      this.start = start;
+      this.length = length;
+    }
+  }
+
+}
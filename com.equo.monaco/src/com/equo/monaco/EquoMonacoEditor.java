@@ -33,48 +33,83 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.eclipse.jface.text.TextSelection;
 import org.eclipse.swt.chromium.Browser;
 import org.eclipse.swt.widgets.Composite;
-import org.eclipse.swt.widgets.Display;
 
 import com.equo.comm.api.IEquoCommService;
 import com.equo.comm.api.IEquoEventHandler;
 import com.equo.filesystem.api.IEquoFileSystem;
 import com.equo.logging.client.api.Logger;
 import com.equo.logging.client.api.LoggerFactory;
-import com.equo.monaco.lsp.CommonLspProxy;
 import com.equo.monaco.lsp.LspProxy;
+import com.equo.monaco.lsp.LspServerPool;
+import com.equo.monaco.lsp.SocketLspProxy;
+import com.equo.monaco.lsp.UnixSocketLspProxy;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 
 /**
  * Implementation of Equo Editor. Class responsible for all communication with
  * the editor in javascript.
+ *
+ * <p>The editor contents are mirrored on the Java side by a
+ * {@link EditorDocumentMirror}, fed with the changes sent by the editor, so
+ * they can be read without asking the editor for them. The editor only sends
+ * its changes once the contents are read or a content listener is added.
  */
 public class EquoMonacoEditor {
   private static Logger logger = LoggerFactory.getLogger(EquoMonacoEditor.class);
+
+  /**
+   * Milliseconds that the editor is given to answer a query, see
+   * {@link #query(String, Object)}. Can be changed with the
+   * {@code equo.monaco.queryTimeout} system property.
+   */
+  public static final long QUERY_TIMEOUT = Long.getLong("equo.monaco.queryTimeout", 10000);
   protected IEquoFileSystem equoFileSystem;
 
   private LspProxy lspProxy = null;
   private static Map<String, List<String>> lspServers = new HashMap<>();
   private static Map<String, String> lspWsServers = new HashMap<>();
+  private static Map<String, Supplier<LspProxy>> lspSocketServers = new HashMap<>();
 
   private volatile boolean loaded;
 
-  private final Semaphore lock = new Semaphore(1);
+  private final Object contentLock = new Object();
+  private final EditorDocumentMirror mirror = new EditorDocumentMirror();
+  private final List<EditorContentListener> contentListeners = new CopyOnWriteArrayList<>();
+  private final List<ChangeDispatcher<Boolean>> dirtyListeners = new CopyOnWriteArrayList<>();
+  private final List<ChangeDispatcher<Boolean>> undoListeners = new CopyOnWriteArrayList<>();
+  private final List<ChangeDispatcher<Boolean>> redoListeners = new CopyOnWriteArrayList<>();
+  private int contentVersion = -1;
+  private boolean deltasSubscribed = false;
+  private final Map<Long, CompletableFuture<JsonElement>> pendingQueries =
+      new ConcurrentHashMap<>();
+  private final AtomicLong nextQueryId = new AtomicLong(1);
+  private final UiRunnableCoalescer uiUpdates = new UiRunnableCoalescer();
 
   private Browser browser;
   private String namespace;
   private List<Consumer<Void>> onLoadListeners;
   protected String filePath = "";
-  private boolean dispose = false;
+  private volatile boolean dispose = false;
   private String fileName = "";
   private WatchService watchService;
   private String rootPath = null;
@@ -122,6 +157,7 @@ public class EquoMonacoEditor {
     namespace = "editor" + Double.toHexString(Math.random());
     onLoadListeners = new ArrayList<Consumer<Void>>();
     loaded = false;
+    contentListeners.add(mirror);
     registerActions();
   }
 
@@ -138,6 +174,18 @@ public class EquoMonacoEditor {
     equoEventHandler.on(namespace + "_doReload", Void.class, runnable -> {
       reload();
     });
+    equoEventHandler.on(namespace + "_deltasNotification", JsonObject.class, changes -> {
+      dispatchFlag(dirtyListeners, changes.get("isDirty").getAsBoolean());
+      dispatchFlag(undoListeners, changes.get("canUndo").getAsBoolean());
+      dispatchFlag(redoListeners, changes.get("canRedo").getAsBoolean());
+      handleContentChanges(changes);
+    });
+    equoEventHandler.on(namespace + "_contentResync", JsonObject.class, contents -> {
+      handleContentResync(contents);
+    });
+    equoEventHandler.on(namespace + "_queryResponse", JsonObject.class, response -> {
+      handleQueryResponse(response);
+    });
   }
 
   public void configRename(Consumer<Void> runnable) {
@@ -187,8 +235,8 @@ public class EquoMonacoEditor {
     String lspPath = null;
     if (lsp != null) {
       this.lspProxy = lsp;
-      lspPath = "ws://127.0.0.1:" + lsp.getPort();
-      this.lspProxy.startServer();
+      lspPath = lsp.getUrl(namespace);
+      startLspServer();
     }
     setRootPath(rootPath);
 
@@ -202,6 +250,34 @@ public class EquoMonacoEditor {
     equoEventHandler.send(this.namespace + "_doReinitialization", editorData);
   }
 
+  /**
+   * Connects the editor to a language server once it was already created. Lets
+   * the editor be shown while the language server is discovered or started.
+   * @param lsp            a proxy to interact with a language server
+   * @param bindEclipseLsp true if actions like finding references must be
+   *                       handled by Eclipse
+   */
+  public void attachLspProxy(LspProxy lsp, boolean bindEclipseLsp) {
+    if (dispose) {
+      lsp.stopServerAsync();
+      return;
+    }
+    if (this.lspProxy != null && this.lspProxy != lsp) {
+      this.lspProxy.stopServerAsync();
+    }
+    this.lspProxy = lsp;
+    Map<String, Object> lspData = new HashMap<>();
+    lspData.put("lspPath", lsp.getUrl(namespace));
+    lspData.put("bindEclipseLsp", bindEclipseLsp);
+    if (this.rootPath != null) {
+      lspData.put("rootUri", "file://" + this.rootPath);
+    }
+    startLspServer();
+    addOnLoadListener(runnable -> {
+      equoEventHandler.send(namespace + "_connectLsp", lspData);
+    });
+  }
+
   /**
    * Initializes the editor.
    */
@@ -226,12 +302,12 @@ public class EquoMonacoEditor {
     }
     String lspPathAux = null;
     if (this.lspProxy != null) {
-      this.lspProxy.stopServer();
+      this.lspProxy.stopServerAsync();
     }
     final boolean thereIsLS = (lsp != null);
     if (thereIsLS) {
       this.lspProxy = lsp;
-      lspPathAux = "ws://127.0.0.1:" + lsp.getPort();
+      lspPathAux = lsp.getUrl(namespace);
     }
     final String lspPath = lspPathAux;
     equoEventHandler.on("_createEditor", JsonObject.class, payload -> {
@@ -247,20 +323,28 @@ public class EquoMonacoEditor {
     }
     List<String> lspProgram = lspServers.getOrDefault(extension, null);
     if (lspProgram != null) {
-      this.lspProxy = new CommonLspProxy(lspProgram);
-      return "ws://127.0.0.1:" + this.lspProxy.getPort();
+      this.lspProxy = LspServerPool.acquire(lspProgram, rootPath);
+      return this.lspProxy.getUrl(namespace);
+    }
+    Supplier<LspProxy> socketServer = lspSocketServers.getOrDefault(extension, null);
+    if (socketServer != null) {
+      this.lspProxy = socketServer.get();
+      return this.lspProxy.getUrl(namespace);
     }
     return lspWsServers.getOrDefault(extension, null);
   }
 
+  private void startLspServer() {
+    lspProxy.startServerAsync().exceptionally(e -> {
+      logger.error("Error starting lsp proxy", e);
+      return null;
+    });
+  }
+
   protected void handleCreateEditor(String contents, String fixedLspPath, boolean bindEclipseLsp) {
     String lspPath = (fixedLspPath != null) ? fixedLspPath : getLspServerForFile(this.fileName);
     if (lspPath != null && this.lspProxy != null) {
-      try {
-        new Thread(() -> lspProxy.startServer()).start();
-      } catch (Exception e) {
-        logger.error("Error starting lsp proxy", e);
-      }
+      startLspServer();
     }
     Map<String, Object> editorData = new HashMap<>();
     editorData.put("text", contents);
@@ -289,36 +373,29 @@ public class EquoMonacoEditor {
   }
 
   /**
-   * Gets the editor contents synchronously.
-   * @return editor contents
+   * Gets the editor contents synchronously. They are read from the mirror on
+   * the Java side, the editor is only asked for them while the mirror is not
+   * synchronized yet.
+   * @return editor contents, or null if the editor didn't send them in time
    */
   public String getContentsSync() {
     if (!loaded) {
       return this.initialContent;
     }
-    String[] result = { null };
-    if (lock.tryAcquire()) {
-      equoEventHandler.on(namespace + "_doGetContents", JsonObject.class, contents -> {
-        try {
-          result[0] = contents.get("contents").getAsString();
-        } finally {
-          synchronized (lock) {
-            lock.notify();
-            lock.release();
-          }
-        }
-      });
-
-      equoEventHandler.send(namespace + "_getContents");
-      synchronized (lock) {
-        try {
-          lock.wait();
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        }
+    synchronized (contentLock) {
+      if (contentVersion >= 0) {
+        return mirror.getText();
       }
     }
-    return result[0];
+    subscribeDeltas();
+    try {
+      return getContents().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.error("The editor " + namespace + " didn't send its contents", e.getCause());
+    }
+    return null;
   }
 
   /**
@@ -327,10 +404,149 @@ public class EquoMonacoEditor {
    *                 once obtained.
    */
   public void getContentsAsync(Consumer<String> runnable) {
-    equoEventHandler.on(namespace + "_doGetContents", JsonObject.class, contents -> {
-      runnable.accept(contents.get("contents").getAsString());
+    getContents().thenAccept(runnable);
+  }
+
+  /**
+   * Gets the editor contents, from the mirror on the Java side if it is
+   * synchronized, or asking the editor for them otherwise.
+   * @return a future completed with the editor contents
+   */
+  public CompletableFuture<String> getContents() {
+    synchronized (contentLock) {
+      if (contentVersion >= 0) {
+        return CompletableFuture.completedFuture(mirror.getText());
+      }
+    }
+    // The next reads are answered by the mirror
+    subscribeDeltas();
+    return query("contents", null).thenApply(JsonElement::getAsString);
+  }
+
+  /**
+   * Asks the editor to send its changes, once it is loaded. It sends its whole
+   * contents first.
+   * @return true if the editor was not asked before
+   */
+  private boolean subscribeDeltas() {
+    synchronized (contentLock) {
+      if (deltasSubscribed) {
+        return false;
+      }
+      deltasSubscribed = true;
+    }
+    addOnLoadListener(runnable -> {
+      equoEventHandler.send(namespace + "_subscribeModelDeltas");
+    });
+    return true;
+  }
+
+  /**
+   * Gets the selection of the editor.
+   * @return a future completed with the selection
+   */
+  public CompletableFuture<TextSelection> getSelection() {
+    return query("selection", null).thenApply(result -> {
+      JsonObject selection = result.getAsJsonObject();
+      return new TextSelection(selection.get("offset").getAsInt(),
+          selection.get("length").getAsInt());
     });
-    equoEventHandler.send(namespace + "_getContents");
+  }
+
+  /**
+   * Gets the view state of the editor, like the scroll position and the
+   * cursors, as saved by Monaco.
+   * @return a future completed with the view state as JSON
+   */
+  public CompletableFuture<String> getViewState() {
+    return query("viewState", null).thenApply(JsonElement::getAsString);
+  }
+
+  /**
+   * Makes a query to the editor, answered by the handler registered for it in
+   * javascript with {@code setQueryHandler}. Each query has its own id, so the
+   * editor can be queried concurrently.
+   * @param  query  the name of the query
+   * @param  params the params of the query, serialized as JSON. Can be null
+   * @return        a future completed with the result of the query, or
+   *                completed exceptionally if the editor fails to answer it
+   *                before {@link #QUERY_TIMEOUT}
+   */
+  public CompletableFuture<JsonElement> query(String query, Object params) {
+    return query(query, params, QUERY_TIMEOUT);
+  }
+
+  /**
+   * Makes a query to the editor, see {@link #query(String, Object)}.
+   * @param  query   the name of the query
+   * @param  params  the params of the query, serialized as JSON. Can be null
+   * @param  timeout milliseconds that the editor is given to answer
+   * @return         a future completed with the result of the query
+   */
+  public CompletableFuture<JsonElement> query(String query, Object params, long timeout) {
+    long id = nextQueryId.getAndIncrement();
+    CompletableFuture<JsonElement> future = new CompletableFuture<>();
+    pendingQueries.put(id, future);
+    future.orTimeout(timeout, TimeUnit.MILLISECONDS)
+        .whenComplete((result, error) -> pendingQueries.remove(id));
+    Map<String, Object> payload = new HashMap<>();
+    payload.put("id", id);
+    payload.put("query", query);
+    payload.put("params", params);
+    addOnLoadListener(runnable -> {
+      equoEventHandler.send(namespace + "_query", payload);
+    });
+    return future;
+  }
+
+  private void handleQueryResponse(JsonObject response) {
+    CompletableFuture<JsonElement> future = pendingQueries.remove(response.get("id").getAsLong());
+    if (future == null) {
+      // The query timed out
+      return;
+    }
+    JsonElement error = response.get("error");
+    if (error != null && !error.isJsonNull()) {
+      future.completeExceptionally(new IllegalStateException(error.getAsString()));
+    } else {
+      JsonElement result = response.get("result");
+      future.complete((result != null) ? result : JsonNull.INSTANCE);
+    }
+  }
+
+  /**
+   * Gets the version of the editor model that {@link #getContentsSync()}
+   * returns, useful to check whether the contents changed between two reads.
+   * @return the version, or -1 if the contents are not mirrored yet
+   */
+  public int getContentsVersion() {
+    synchronized (contentLock) {
+      return contentVersion;
+    }
+  }
+
+  /**
+   * Waits until the editor changes up to the given version are received, so
+   * the content listeners already have them.
+   * @param  version the version of the editor model
+   * @param  timeout maximum milliseconds to wait
+   * @return         true if the version was received in time
+   */
+  public boolean awaitContentsVersion(int version, long timeout) {
+    subscribeDeltas();
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized (contentLock) {
+      try {
+        long remaining = timeout;
+        while (contentVersion < version && remaining > 0) {
+          contentLock.wait(remaining);
+          remaining = deadline - System.currentTimeMillis();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return contentVersion >= version;
+    }
   }
 
   public void handleAfterSave() {
@@ -390,8 +606,8 @@ public class EquoMonacoEditor {
   public void saveAs() {
     if (equoFileSystem != null) {
       getContentsAsync(content -> {
-        Display.getDefault().asyncExec(() -> {
-          File file = equoFileSystem.saveFileAs(content);
+        uiUpdates.post("saveAs", content, contents -> {
+          File file = equoFileSystem.saveFileAs(contents);
           if (file != null) {
             filePath = file.getAbsolutePath();
             notifyFilePathChanged();
@@ -411,8 +627,8 @@ public class EquoMonacoEditor {
       saveAs();
     } else if (equoFileSystem != null) {
       getContentsAsync(content -> {
-        Display.getDefault().asyncExec(() -> {
-          if (equoFileSystem.saveFile(new File(filePath), content)) {
+        uiUpdates.post("save", content, contents -> {
+          if (equoFileSystem.saveFile(new File(filePath), contents)) {
             handleAfterSave();
           }
         });
@@ -481,9 +697,9 @@ public class EquoMonacoEditor {
 
   protected void reportChanges() {
     getContentsAsync(content -> {
-      Display.getDefault().asyncExec(() -> {
+      uiUpdates.post("reportChanges", content, contents -> {
         String fileContent = getFileContent();
-        if (fileContent == null || !content.trim().equals(fileContent.trim())) {
+        if (fileContent == null || !contents.trim().equals(fileContent.trim())) {
           equoEventHandler.send(namespace + "_reportChanges");
         }
       });
@@ -559,6 +775,140 @@ public class EquoMonacoEditor {
     }
   }
 
+  /**
+   * Sets listeners for common changes. Instead of the whole contents, the
+   * content listener receives only the changed ranges, so the cost of each
+   * change does not depend on the size of the document. If a version is
+   * missed, the whole contents are sent again.
+   */
+  public void subscribeChanges(Consumer<Boolean> dirtyListener, Consumer<Boolean> undoListener,
+      Consumer<Boolean> redoListener, EditorContentListener contentListener) {
+    subscribeChanges(dirtyListener, undoListener, redoListener, contentListener,
+        ChangeDeliveryPolicy.immediate(), ChangeDeliveryPolicy.immediate());
+  }
+
+  /**
+   * Sets listeners for common changes, see
+   * {@link #subscribeChanges(Consumer, Consumer, Consumer, EditorContentListener)},
+   * with the given delivery policies.
+   * @param flagsPolicy   how the dirty, undo and redo flags are delivered
+   * @param contentPolicy how the content changes are delivered
+   */
+  public void subscribeChanges(Consumer<Boolean> dirtyListener, Consumer<Boolean> undoListener,
+      Consumer<Boolean> redoListener, EditorContentListener contentListener,
+      ChangeDeliveryPolicy flagsPolicy, ChangeDeliveryPolicy contentPolicy) {
+    subscribeDirtyState(dirtyListener, flagsPolicy);
+    subscribeCanUndo(undoListener, flagsPolicy);
+    subscribeCanRedo(redoListener, flagsPolicy);
+    subscribeContent(contentListener, contentPolicy);
+  }
+
+  /**
+   * Adds a listener of the dirty state of the editor.
+   * @param listener receives true if the editor has unsaved changes
+   * @param policy   how the state is delivered
+   */
+  public void subscribeDirtyState(Consumer<Boolean> listener, ChangeDeliveryPolicy policy) {
+    dirtyListeners.add(ChangeDispatcher.forFlag(listener, policy));
+  }
+
+  /**
+   * Adds a listener of the availability of the undo action.
+   * @param listener receives true if there is a change to undo
+   * @param policy   how the flag is delivered
+   */
+  public void subscribeCanUndo(Consumer<Boolean> listener, ChangeDeliveryPolicy policy) {
+    undoListeners.add(ChangeDispatcher.forFlag(listener, policy));
+  }
+
+  /**
+   * Adds a listener of the availability of the redo action.
+   * @param listener receives true if there is a change to redo
+   * @param policy   how the flag is delivered
+   */
+  public void subscribeCanRedo(Consumer<Boolean> listener, ChangeDeliveryPolicy policy) {
+    redoListeners.add(ChangeDispatcher.forFlag(listener, policy));
+  }
+
+  /**
+   * Adds a listener of the changes of the editor contents. It receives the
+   * current contents first.
+   * @param  listener receives the changed ranges, or the whole contents when
+   *                  it must synchronize again
+   * @param  policy   how the changes are delivered. A debounced listener
+   *                  receives the held changes together
+   * @return          the subscription, which can deliver the held changes
+   *                  before the listener needs the contents
+   */
+  public DispatchedContentListener subscribeContent(EditorContentListener listener,
+      ChangeDeliveryPolicy policy) {
+    DispatchedContentListener subscription = new DispatchedContentListener(listener, policy);
+    contentListeners.add(subscription);
+    if (!subscribeDeltas() && loaded) {
+      // The new listener needs the current contents
+      requestContentResync();
+    }
+    return subscription;
+  }
+
+  private static void dispatchFlag(List<ChangeDispatcher<Boolean>> listeners, boolean value) {
+    for (ChangeDispatcher<Boolean> listener : listeners) {
+      listener.submit(value);
+    }
+  }
+
+  private void handleContentResync(JsonObject contents) {
+    synchronized (contentLock) {
+      contentVersion = contents.get("versionId").getAsInt();
+      String content = contents.get("content").getAsString();
+      for (EditorContentListener listener : contentListeners) {
+        listener.contentResynced(contentVersion, content);
+      }
+      contentLock.notifyAll();
+    }
+  }
+
+  private void handleContentChanges(JsonObject notification) {
+    JsonArray changes = notification.getAsJsonArray("changes");
+    if (changes == null || changes.size() == 0) {
+      return;
+    }
+    int versionId = notification.get("versionId").getAsInt();
+    synchronized (contentLock) {
+      if (contentVersion < 0) {
+        // Waiting for the whole contents
+        return;
+      }
+      if (versionId != contentVersion + 1) {
+        logger.warn("Missed changes of the editor " + namespace + ", expected version "
+            + (contentVersion + 1) + " but got " + versionId);
+        requestContentResync();
+        return;
+      }
+      contentVersion = versionId;
+      List<EditorContentChange> contentChanges = new ArrayList<>(changes.size());
+      for (JsonElement change : changes) {
+        contentChanges.add(EditorContentChange.fromJson(change.getAsJsonObject()));
+      }
+      for (EditorContentListener listener : contentListeners) {
+        listener.contentChanged(versionId, contentChanges);
+      }
+      contentLock.notifyAll();
+    }
+  }
+
+  /**
+   * Asks the editor to send its whole contents to the content listeners, see
+   * {@link EditorContentListener#contentResynced(int, String)}. The changes
+   * received meanwhile are ignored.
+   */
+  public void requestContentResync() {
+    synchronized (contentLock) {
+      contentVersion = -1;
+    }
+    equoEventHandler.send(namespace + "_resyncContent");
+  }
+
   /**
    * Adds a lsp websocket server to be used by the editors on the files with the
    * given extensions.
@@ -574,9 +924,42 @@ public class EquoMonacoEditor {
     }
   }
 
+  /**
+   * Adds a lsp server listening on a TCP socket to be used by the editors on the
+   * files with the given extensions. The server must be already running, each
+   * editor opens its own connection to it.
+   * @param host       The host where the server listens. Example: 127.0.0.1
+   * @param port       The port where the server listens
+   * @param extensions A collection of extensions for what the editor will use
+   *                   the given lsp server. The extensions must not have the
+   *                   initial dot. Example: ["php", "php4"]
+   */
+  public static void addLspSocketServer(String host, int port, Collection<String> extensions) {
+    for (String extension : extensions) {
+      lspSocketServers.put(extension, () -> new SocketLspProxy(host, port));
+    }
+  }
+
+  /**
+   * Adds a lsp server listening on a Unix domain socket to be used by the
+   * editors on the files with the given extensions. The server must be already
+   * running, each editor opens its own connection to it. Requires Java 16 or
+   * newer.
+   * @param socketPath The path of the socket file where the server listens
+   * @param extensions A collection of extensions for what the editor will use
+   *                   the given lsp server. The extensions must not have the
+   *                   initial dot. Example: ["php", "php4"]
+   */
+  public static void addLspUnixSocketServer(String socketPath, Collection<String> extensions) {
+    for (String extension : extensions) {
+      lspSocketServers.put(extension, () -> new UnixSocketLspProxy(socketPath));
+    }
+  }
+
   /**
    * Adds a lsp server to be used by the editors on the files with the given
-   * extensions.
+   * extensions. All the editors with the same root path share the same server
+   * process.
    * @param executionParameters The parameters needed to start the lsp server
    *                            through stdio. Example: ["html-languageserver",
    *                            "--stdio"]
@@ -590,6 +973,24 @@ public class EquoMonacoEditor {
     }
   }
 
+  /**
+   * Adds a lsp server to be used by the editors on the files with the given
+   * extensions, keeping some server processes started in background so the
+   * next editors don't wait for them to start.
+   * @param executionParameters The parameters needed to start the lsp server
+   *                            through stdio. Example: ["html-languageserver",
+   *                            "--stdio"]
+   * @param extensions          A collection of extensions for what the editor
+   *                            will use the given lsp server. The extensions must
+   *                            not have the initial dot. Example: ["php", "php4"]
+   * @param warmServers         The amount of servers to keep started in advance
+   */
+  public static void addLspServer(List<String> executionParameters, Collection<String> extensions,
+      int warmServers) {
+    addLspServer(executionParameters, extensions);
+    LspServerPool.setWarmServers(executionParameters, warmServers);
+  }
+
   /**
    * Removes a lsp server assigned to the given extensions.
    * @param extensions A collection of the file extensions for which the
@@ -598,8 +999,12 @@ public class EquoMonacoEditor {
    */
   public static void removeLspServer(Collection<String> extensions) {
     for (String extension : extensions) {
-      lspServers.remove(extension);
+      List<String> executionParameters = lspServers.remove(extension);
       lspWsServers.remove(extension);
+      lspSocketServers.remove(extension);
+      if (executionParameters != null && !lspServers.containsValue(executionParameters)) {
+        LspServerPool.setWarmServers(executionParameters, 0);
+      }
     }
   }
 
@@ -607,10 +1012,25 @@ public class EquoMonacoEditor {
    * Disposes the editor. Stops the lsp proxy if it was running.
    */
   public void dispose() {
+    // A save requested right before closing must still be written
+    uiUpdates.flush("save");
+    uiUpdates.dispose();
     if (lspProxy != null) {
-      lspProxy.stopServer();
+      lspProxy.stopServerAsync();
     }
     dispose = true;
+    for (CompletableFuture<JsonElement> query : pendingQueries.values()) {
+      query.cancel(false);
+    }
+    for (EditorContentListener listener : contentListeners) {
+      if (listener instanceof DispatchedContentListener) {
+        ((DispatchedContentListener) listener).discard();
+      }
+    }
+    for (List<ChangeDispatcher<Boolean>> listeners : Arrays.asList(dirtyListeners, undoListeners,
+        redoListeners)) {
+      listeners.forEach(ChangeDispatcher::discard);
+    }
   }
 
   /**
@@ -63,7 +63,12 @@ public class EquoMonacoStandaloneEditor {
       List<String> executionParameters =
           getListFromJsonArray(payload.getAsJsonArray("executionParameters"));
       List<String> extensions = getListFromJsonArray(payload.getAsJsonArray("extensions"));
-      EquoMonacoEditor.addLspServer(executionParameters, extensions);
+      JsonElement warmServers = payload.get("warmServers");
+      if (warmServers != null && !warmServers.isJsonNull()) {
+        EquoMonacoEditor.addLspServer(executionParameters, extensions, warmServers.getAsInt());
+      } else {
+        EquoMonacoEditor.addLspServer(executionParameters, extensions);
+      }
     });
 
     equoEventHandler.on("_addLspWsServer", JsonObject.class, payload -> {
@@ -0,0 +1,168 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Runs the updates of an editor in the UI thread, keeping at most one pending
+ * runnable per kind of event. If an event is posted while another of the same
+ * kind is waiting to run, only the latest value is applied when it runs, so
+ * fast typing or cursor movements don't flood the event queue.
+ */
+public class UiRunnableCoalescer {
+  private final Executor executor;
+  private final Map<String, PendingUpdate<?>> pending = new HashMap<>();
+  private final AtomicLong posted = new AtomicLong();
+  private final AtomicLong executed = new AtomicLong();
+  private boolean disposed = false;
+
+  /**
+   * Creates a coalescer that runs the updates in the default display.
+   */
+  public UiRunnableCoalescer() {
+    this((Display) null);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param display the display where the updates run, or null for the default
+   *                one
+   */
+  public UiRunnableCoalescer(Display display) {
+    this(runnable -> {
+      Display target = (display != null) ? display : Display.getDefault();
+      if (!target.isDisposed()) {
+        target.asyncExec(runnable);
+      }
+    });
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param executor runs the updates in the UI thread
+   */
+  public UiRunnableCoalescer(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Posts an update to run in the UI thread.
+   * @param kind   the kind of event. A pending update of the same kind is
+   *               replaced
+   * @param action the update
+   */
+  public void post(String kind, Runnable action) {
+    post(kind, action, Runnable::run);
+  }
+
+  /**
+   * Posts an update to run in the UI thread with the given value.
+   * @param kind   the kind of event. A pending update of the same kind is
+   *               replaced, and runs with the latest value
+   * @param value  the value of the event
+   * @param action the update that applies the value
+   */
+  public <T> void post(String kind, T value, Consumer<T> action) {
+    synchronized (pending) {
+      if (disposed) {
+        return;
+      }
+      posted.incrementAndGet();
+      PendingUpdate<?> previous = pending.put(kind, new PendingUpdate<>(value, action));
+      if (previous != null) {
+        // Already waiting to run, it will take the latest value
+        return;
+      }
+    }
+    executor.execute(() -> run(kind));
+  }
+
+  private void run(String kind) {
+    PendingUpdate<?> update;
+    synchronized (pending) {
+      update = pending.remove(kind);
+    }
+    if (update != null) {
+      executed.incrementAndGet();
+      update.run();
+    }
+  }
+
+  /**
+   * Runs the pending update of the given kind, if any, in the calling thread
+   * instead of waiting its turn.
+   * @param kind the kind of event
+   */
+  public void flush(String kind) {
+    run(kind);
+  }
+
+  /**
+   * Discards the pending updates and ignores the next ones.
+   */
+  public void dispose() {
+    synchronized (pending) {
+      disposed = true;
+      pending.clear();
+    }
+  }
+
+  /**
+   * Gets the amount of updates posted before the coalescer was disposed.
+   * @return the amount of posted updates
+   */
+  public long getPosted() {
+    return posted.get();
+  }
+
+  /**
+   * Gets the amount of updates that ran in the UI thread. The difference with
+   * the posted ones is the amount of updates coalesced.
+   * @return the amount of executed updates
+   */
+  public long getExecuted() {
+    return executed.get();
+  }
+
+  private static class PendingUpdate<T> {
+    private final T value;
+    private final Consumer<T> action;
+
+    private PendingUpdate(T value, Consumer<T> action) {
+      this.value = value;
+      this.action = action;
+    }
+
+    private void run() {
+      action.accept(value);
+    }
+  }
+
+}
@@ -23,15 +23,83 @@
 package com.equo.monaco.lsp;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
 
 /**
  * Lsp Proxy that runs a program with the given parameters and communicates the
  * editor with it.
+ *
+ * <p>If the program exits without being stopped, it is started again after a
+ * delay that doubles with each consecutive crash. The editors stay connected,
+ * and the new server is initialized and receives the open documents again.
+ *
+ * <p>When stopped, the server is asked to shut down and given some time to
+ * exit. Then the processes it started are destroyed too, so no orphan process
+ * is left behind.
+ *
+ * <p>While started, the server is sampled by the {@link LspServerWatchdog},
+ * which may restart or throttle it if it uses too many resources.
  */
 public class CommonLspProxy extends LspProxy {
+  private static Logger logger = LoggerFactory.getLogger(CommonLspProxy.class);
+
+  /**
+   * Milliseconds that a server that crashed waits to be restarted the first
+   * time. Can be changed with the {@code equo.monaco.lsp.restartDelay} system
+   * property.
+   */
+  public static final long RESTART_DELAY = Long.getLong("equo.monaco.lsp.restartDelay", 500);
+
+  /**
+   * Maximum milliseconds that a server that crashed waits to be restarted. Can
+   * be changed with the {@code equo.monaco.lsp.maxRestartDelay} system property.
+   */
+  public static final long MAX_RESTART_DELAY =
+      Long.getLong("equo.monaco.lsp.maxRestartDelay", 30000);
+
+  /**
+   * Amount of consecutive crashes after which a server is no longer restarted.
+   * Can be changed with the {@code equo.monaco.lsp.maxRestarts} system property.
+   */
+  public static final int MAX_RESTARTS = Integer.getInteger("equo.monaco.lsp.maxRestarts", 10);
+
+  /**
+   * Milliseconds that a server is given to exit after it is asked to shut down.
+   * Can be changed with the {@code equo.monaco.lsp.shutdownTimeout} system
+   * property.
+   */
+  public static final long SHUTDOWN_TIMEOUT =
+      Long.getLong("equo.monaco.lsp.shutdownTimeout", 3000);
+
+  /**
+   * Milliseconds that a destroyed process is given to finish before it is
+   * forcibly killed.
+   */
+  private static final long DESTROY_TIMEOUT = 2000;
+
+  /**
+   * Milliseconds that a server must run to stop counting its previous crashes.
+   */
+  static final long STABLE_TIME = 60000;
+
   private List<String> program;
   private Process process;
+  private LspServerLog serverLog;
+  private volatile boolean stopped = false;
+  private boolean restartPending = false;
+  private long startTime;
+  private int consecutiveCrashes = 0;
+  private int restarts = 0;
+  private volatile LspResourceSample resourceSample = null;
 
   public CommonLspProxy(List<String> programArguments) {
     super();
@@ -40,19 +108,231 @@ public class CommonLspProxy extends LspProxy {
 
   @Override
   public synchronized void startServer() {
+    if (isRunning() || restartPending) {
+      return;
+    }
+    stopped = false;
+    launch();
+  }
+
+  private boolean launch() {
     ProcessBuilder builder = new ProcessBuilder(program);
     try {
-      process = builder.start();
-      startProxy(process.getInputStream(), process.getOutputStream());
+      Process started = builder.start();
+      process = started;
+      startTime = System.currentTimeMillis();
+      serverLog = new LspServerLog(program.get(0), started.getErrorStream());
+      started.onExit().thenRun(() -> handleExit(started));
+      startProxy(started.getInputStream(), started.getOutputStream());
+      LspServerWatchdog.watch(this);
+      return true;
     } catch (IOException e) {
       e.printStackTrace();
+      return false;
+    }
+  }
+
+  private void handleExit(Process exited) {
+    synchronized (this) {
+      if (stopped || process != exited) {
+        return;
+      }
+      if (System.currentTimeMillis() - startTime >= STABLE_TIME) {
+        consecutiveCrashes = 0;
+      }
+    }
+    logger.warn("The language server " + program.get(0) + " exited with code "
+        + exited.exitValue());
+    LspWsProxy current = proxy;
+    if (current != null) {
+      current.disconnect();
+    }
+    scheduleRestart(exited);
+  }
+
+  private synchronized void scheduleRestart(Process exited) {
+    if (consecutiveCrashes >= MAX_RESTARTS) {
+      logger.error("The language server " + program.get(0) + " crashed " + consecutiveCrashes
+          + " times in a row, it won't be restarted again");
+      return;
+    }
+    long delay = Math.min(MAX_RESTART_DELAY, RESTART_DELAY << Math.min(consecutiveCrashes, 20));
+    consecutiveCrashes++;
+    restartPending = true;
+    CompletableFuture.runAsync(() -> restart(exited),
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+  }
+
+  private synchronized void restart(Process exited) {
+    restartPending = false;
+    if (stopped || process != exited) {
+      return;
+    }
+    restarts++;
+    if (!launch()) {
+      scheduleRestart(exited);
+    }
+  }
+
+  /**
+   * The server stopped reading its messages or its streams failed, so its
+   * process is destroyed and restarted as if it crashed. The losses of a server
+   * already stopped or replaced are ignored.
+   */
+  @Override
+  protected void serverLost(LspServerChannel lost) {
+    if (stopped || !isServerChannel(lost)) {
+      return;
+    }
+    // A restart may hold the lock while this server shuts down
+    CompletableFuture.runAsync(() -> {
+      Process target;
+      synchronized (this) {
+        if (stopped || !isServerChannel(lost) || process == null || !process.isAlive()) {
+          // Already replaced, or handled when the process exited
+          return;
+        }
+        target = process;
+      }
+      logger.warn("Lost the connection with the language server " + program.get(0)
+          + ", restarting it");
+      shutdown(target);
+    });
+  }
+
+  /**
+   * Restarts a running server, asking it to shut down first. The editors stay
+   * connected, and the new server is initialized and receives the open
+   * documents again.
+   */
+  public synchronized void restartServer() {
+    if (stopped || process == null || !process.isAlive()) {
+      return;
+    }
+    Process previous = process;
+    shutdown(previous);
+    LspWsProxy current = proxy;
+    if (current != null) {
+      current.disconnect();
+    }
+    restarts++;
+    if (!launch()) {
+      scheduleRestart(previous);
     }
   }
 
   @Override
   public synchronized void stopServer() {
+    // Set first, so the loss of the server while it shuts down is ignored
+    stopped = true;
+    restartPending = false;
+    LspServerWatchdog.unwatch(this);
+    if (process != null) {
+      shutdown(process);
+    }
     super.stopServer();
-    process.destroy();
+    if (serverLog != null && !serverLog.join(DESTROY_TIMEOUT)) {
+      logger.error("The error stream of the language server " + program.get(0)
+          + " was not closed " + DESTROY_TIMEOUT + "ms after it was stopped");
+    }
+  }
+
+  /**
+   * Asks the server to shut down and then destroys its process tree.
+   */
+  private void shutdown(Process target) {
+    // The children are no longer descendants once the server exits
+    List<ProcessHandle> processes =
+        target.descendants().collect(Collectors.toCollection(ArrayList::new));
+    LspWsProxy current = proxy;
+    if (target.isAlive() && current != null && current.isConnected()) {
+      long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+      current.shutdownServer(SHUTDOWN_TIMEOUT);
+      waitFor(target.toHandle(), deadline - System.currentTimeMillis());
+    }
+    target.descendants().forEach(processes::add);
+    processes.add(target.toHandle());
+    destroy(processes);
+  }
+
+  private static boolean waitFor(ProcessHandle handle, long timeout) {
+    try {
+      handle.onExit().get(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException | ExecutionException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void destroy(List<ProcessHandle> processes) {
+    processes.removeIf(handle -> !handle.isAlive());
+    if (processes.isEmpty()) {
+      return;
+    }
+    processes.forEach(ProcessHandle::destroy);
+    long deadline = System.currentTimeMillis() + DESTROY_TIMEOUT;
+    for (ProcessHandle handle : processes) {
+      if (!waitFor(handle, deadline - System.currentTimeMillis())) {
+        logger.warn("The process " + handle.pid() + " of the language server " + program.get(0)
+            + " didn't finish, killing it");
+        handle.destroyForcibly();
+      }
+    }
+  }
+
+  public synchronized boolean isRunning() {
+    return process != null && process.isAlive();
+  }
+
+  public synchronized boolean hasStarted() {
+    return process != null;
+  }
+
+  /**
+   * Gets the amount of times the server was restarted after a crash.
+   * @return the amount of restarts
+   */
+  public synchronized int getRestarts() {
+    return restarts;
+  }
+
+  synchronized ProcessHandle getProcessHandle() {
+    return (process != null) ? process.toHandle() : null;
+  }
+
+  List<String> getExecutionParameters() {
+    return program;
+  }
+
+  /**
+   * Gets the last resources used by the server, sampled by the
+   * {@link LspServerWatchdog}.
+   * @return the last sample, or null if the server was not sampled yet
+   */
+  public LspResourceSample getResourceSample() {
+    return resourceSample;
+  }
+
+  void setResourceSample(LspResourceSample resourceSample) {
+    this.resourceSample = resourceSample;
+  }
+
+  void setThrottled(boolean throttled) {
+    LspWsProxy current = proxy;
+    if (current != null) {
+      current.getMultiplexer().setThrottled(throttled);
+    }
+  }
+
+  /**
+   * Gets the last output written by the server to its error stream.
+   * @return the output, or an empty string if the server was not started
+   */
+  public synchronized String getServerLog() {
+    return (serverLog != null) ? serverLog.getContents() : "";
   }
 
 }
@@ -0,0 +1,169 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Aggregates the {@code textDocument/didChange} notifications sent for the
+ * same document within a short window, so the server receives one
+ * notification instead of one per keystroke. The content changes are
+ * concatenated, and every change before a full text replacement is dropped,
+ * so servers with full document sync only receive the last text.
+ *
+ * <p>The held notifications must be flushed before any other message is sent
+ * to the server, so the order of the messages is preserved.
+ */
+public class LspChangeAggregator {
+
+  /**
+   * Default milliseconds that changes are held waiting more changes for the
+   * same document. Use 0 to forward every notification. Can be changed with the
+   * {@code equo.monaco.lsp.didChangeDelay} system property.
+   */
+  public static final long DEFAULT_DELAY = Long.getLong("equo.monaco.lsp.didChangeDelay", 50);
+
+  private final Consumer<String> serverSender;
+  private final long delay;
+  private final Map<String, JsonObject> pending = new LinkedHashMap<>();
+  // Keeps the flushes in order, without holding the pending changes meanwhile
+  private final Object sendLock = new Object();
+  private final AtomicLong mergedChanges = new AtomicLong();
+
+  public LspChangeAggregator(Consumer<String> serverSender) {
+    this(serverSender, DEFAULT_DELAY);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param serverSender sends a message to the language server
+   * @param delay        milliseconds that changes are held. Use 0 to forward
+   *                     every notification
+   */
+  public LspChangeAggregator(Consumer<String> serverSender, long delay) {
+    this.serverSender = serverSender;
+    this.delay = delay;
+  }
+
+  /**
+   * Submits a {@code didChange} notification, which is sent once the window
+   * of its document finishes or the changes are flushed.
+   * @param uri          the uri of the document
+   * @param notification the parsed notification
+   */
+  public void submit(String uri, JsonObject notification) {
+    if (delay <= 0 || uri == null) {
+      serverSender.accept(notification.toString());
+      return;
+    }
+    synchronized (pending) {
+      JsonObject held = pending.get(uri);
+      if (held == null) {
+        pending.put(uri, notification);
+        CompletableFuture.runAsync(() -> flush(uri, notification),
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        return;
+      }
+      merge(held, notification);
+      mergedChanges.incrementAndGet();
+    }
+  }
+
+  private static void merge(JsonObject held, JsonObject notification) {
+    JsonObject heldParams = held.getAsJsonObject("params");
+    JsonObject params = notification.getAsJsonObject("params");
+    heldParams.add("textDocument", params.get("textDocument"));
+    JsonArray changes = heldParams.getAsJsonArray("contentChanges");
+    for (JsonElement change : params.getAsJsonArray("contentChanges")) {
+      JsonElement range = change.getAsJsonObject().get("range");
+      if (range == null || range.isJsonNull()) {
+        // The whole text is replaced, so the previous changes don't matter
+        changes = new JsonArray();
+        heldParams.add("contentChanges", changes);
+      }
+      changes.add(change);
+    }
+  }
+
+  private void flush(String uri, JsonObject notification) {
+    synchronized (sendLock) {
+      synchronized (pending) {
+        if (pending.get(uri) != notification) {
+          return;
+        }
+        pending.remove(uri);
+      }
+      serverSender.accept(notification.toString());
+    }
+  }
+
+  /**
+   * Sends every held notification to the server.
+   */
+  public void flush() {
+    synchronized (sendLock) {
+      List<JsonObject> notifications;
+      synchronized (pending) {
+        if (pending.isEmpty()) {
+          return;
+        }
+        notifications = new ArrayList<>(pending.values());
+        pending.clear();
+      }
+      for (JsonObject notification : notifications) {
+        serverSender.accept(notification.toString());
+      }
+    }
+  }
+
+  /**
+   * Discards the held notifications, for example because the server that had
+   * to receive them is gone.
+   */
+  public void discard() {
+    synchronized (pending) {
+      pending.clear();
+    }
+  }
+
+  /**
+   * Gets the amount of notifications merged into a previous one instead of
+   * being sent to the server.
+   * @return the amount of merged notifications
+   */
+  public long getMergedChanges() {
+    return mergedChanges.get();
+  }
+
+}
@@ -0,0 +1,1164 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.ContinuousFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Lets several editors share the connection with one language server. The ids
+ * of the requests sent by each editor are rewritten so they don't collide, and
+ * each response is sent back only to the editor that made the request. The
+ * {@code initialize} handshake is sent to the server once and the next editors
+ * are answered with the cached result. Diagnostics are sent only to the editors
+ * that have the document open, coalesced by a {@link LspDiagnosticsCoalescer}
+ * so a burst of them for the same document reaches the editors once.
+ *
+ * <p>Editors are identified by a client id, so when an editor reconnects its
+ * stale connection is closed and its state moves to the new one.
+ *
+ * <p>The server keeps one copy of each document, so when several editors open
+ * the same uri, the first one owns it: only its changes reach the server, and
+ * the requests that the server makes about the document are sent to it. The
+ * other editors keep their own copy, their requests about the document are
+ * answered with a {@code RequestFailed} error, and when the owner closes it,
+ * the next editor becomes the owner and the server receives its contents.
+ *
+ * <p>Completion, hover and signature help requests become obsolete as soon as
+ * the editor asks again for the same document. When that happens, the older
+ * request is cancelled in the server, answered to the editor with a
+ * {@code RequestCancelled} error, and its late response is dropped.
+ *
+ * <p>The results of idempotent requests, like hover or document symbols, are
+ * kept in a {@link LspResponseCache} keyed by the document version, so the
+ * same request for an unchanged document is answered without reaching the
+ * server.
+ *
+ * <p>The {@code didChange} notifications of each document are aggregated by a
+ * {@link LspChangeAggregator}, and flushed before any other message is sent to
+ * the server.
+ *
+ * <p>The {@code initialize} params and the contents of the open documents are
+ * kept, so when the server is restarted after a crash it can be brought back
+ * to the state the editors expect, see {@link #getRestoreMessages()}.
+ *
+ * <p>Server messages too big to be decoded are sent to the editors as they
+ * were received, in fragmented WebSocket frames, with only the id of the
+ * responses rewritten. Responses over the maximum message size are replaced
+ * by a {@code RequestFailed} error.
+ */
+public class LspClientMultiplexer {
+  private static final JsonParser PARSER = new JsonParser();
+
+  private static final String INITIALIZE = "initialize";
+  private static final String INITIALIZED = "initialized";
+  private static final String SHUTDOWN = "shutdown";
+  private static final String EXIT = "exit";
+  private static final String CANCEL_REQUEST = "$/cancelRequest";
+  private static final String DID_OPEN = "textDocument/didOpen";
+  private static final String DID_CLOSE = "textDocument/didClose";
+  private static final String DID_CHANGE = "textDocument/didChange";
+  private static final String DID_CHANGE_WATCHED_FILES = "workspace/didChangeWatchedFiles";
+  private static final String DID_CHANGE_CONFIGURATION = "workspace/didChangeConfiguration";
+  private static final String PUBLISH_DIAGNOSTICS = "textDocument/publishDiagnostics";
+  private static final int REQUEST_CANCELLED = -32800;
+  private static final int REQUEST_FAILED = -32803;
+  private static final int FRAGMENT_SIZE = 64 * 1024;
+
+  private static final Set<String> SUPERSEDABLE_METHODS = new HashSet<>(Arrays
+      .asList("textDocument/completion", "textDocument/hover", "textDocument/signatureHelp"));
+
+  private static final Set<String> CACHEABLE_METHODS =
+      new HashSet<>(Arrays.asList("textDocument/hover", "textDocument/documentSymbol",
+          "textDocument/foldingRange", "textDocument/semanticTokens/full"));
+
+  /**
+   * Milliseconds that the state of a disconnected editor is kept waiting for it
+   * to reconnect.
+   */
+  public static final long RECONNECTION_TIMEOUT =
+      Long.getLong("equo.monaco.lsp.reconnectionTimeout", 30000);
+
+  private final Consumer<String> serverSender;
+  private final Map<WebSocket, Client> clients = new ConcurrentHashMap<>();
+  private final Map<String, Client> clientsById = new ConcurrentHashMap<>();
+  private final Map<Long, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+  private final Map<Long, CompletableFuture<JsonObject>> shutdownRequests =
+      new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final Set<Long> supersededRequests = ConcurrentHashMap.newKeySet();
+  private final AtomicLong supersededCount = new AtomicLong();
+  private final AtomicLong droppedResponses = new AtomicLong();
+  private final LspResponseCache responseCache = new LspResponseCache();
+  private final AtomicLong throttledRequests = new AtomicLong();
+  private final LspChangeAggregator changes;
+  private final LspDiagnosticsCoalescer diagnostics =
+      new LspDiagnosticsCoalescer(this::sendToDocumentClients);
+  private volatile boolean throttled = false;
+  private final Map<String, Integer> documentVersions = new ConcurrentHashMap<>();
+  private final Map<String, LspDocument> documents = new ConcurrentHashMap<>();
+
+  private final Map<String, List<Client>> documentEditors = new HashMap<>();
+  private JsonElement initializeResult = null;
+  private List<PendingRequest> waitingInitialize = null;
+  private boolean initializedSent = false;
+  private JsonObject initializeRequest = null;
+  private long restoreInitializeId = -1;
+
+  /**
+   * Parameterized constructor.
+   * @param serverSender sends a message to the language server
+   */
+  public LspClientMultiplexer(Consumer<String> serverSender) {
+    this.serverSender = serverSender;
+    this.changes = new LspChangeAggregator(serverSender);
+  }
+
+  private void sendToServer(String message) {
+    changes.flush();
+    serverSender.accept(message);
+  }
+
+  public void clientConnected(WebSocket conn) {
+    clientConnected(conn, null);
+  }
+
+  /**
+   * Registers a new connection of an editor. If the editor was already
+   * connected, its previous connection is closed and replaced by the new one.
+   * @param conn     the new connection
+   * @param clientId the id of the editor, or null if unknown
+   */
+  public void clientConnected(WebSocket conn, String clientId) {
+    if (clientId == null) {
+      clients.putIfAbsent(conn, new Client(null, conn));
+      return;
+    }
+    Client client = clientsById.computeIfAbsent(clientId, id -> new Client(id, conn));
+    WebSocket staleConn;
+    synchronized (client) {
+      staleConn = client.conn;
+      client.conn = conn;
+      client.detached = false;
+    }
+    clients.put(conn, client);
+    if (staleConn != conn) {
+      clients.remove(staleConn);
+      if (staleConn.isOpen()) {
+        staleConn.close(CloseFrame.NORMAL, "Replaced by a new connection");
+      }
+    }
+  }
+
+  /**
+   * Handles the disconnection of an editor. If the editor has a client id, its
+   * state is kept for a while in case it reconnects. Otherwise, the documents
+   * opened only by it are closed and its pending requests are cancelled.
+   */
+  public void clientDisconnected(WebSocket conn) {
+    Client client = clients.remove(conn);
+    if (client == null) {
+      return;
+    }
+    if (client.id != null) {
+      synchronized (client) {
+        if (client.conn != conn) {
+          return;
+        }
+        client.detached = true;
+      }
+      CompletableFuture.runAsync(() -> removeIfDetached(client),
+          CompletableFuture.delayedExecutor(RECONNECTION_TIMEOUT, TimeUnit.MILLISECONDS));
+      return;
+    }
+    removeClient(client);
+  }
+
+  private void removeIfDetached(Client client) {
+    synchronized (client) {
+      if (!client.detached) {
+        return;
+      }
+    }
+    if (clientsById.remove(client.id, client)) {
+      removeClient(client);
+    }
+  }
+
+  private void removeClient(Client client) {
+    for (String uri : client.openUris) {
+      closeDocument(client, uri);
+    }
+    for (Long serverId : client.requestIds.values()) {
+      PendingRequest request = pendingRequests.get(serverId);
+      // The initialize handshake is kept because other editors may be waiting it
+      if (request != null && !INITIALIZE.equals(request.method)) {
+        pendingRequests.remove(serverId);
+        cancelInServer(serverId);
+      }
+    }
+  }
+
+  private void cancelInServer(long serverId) {
+    JsonObject params = new JsonObject();
+    params.addProperty("id", serverId);
+    sendToServer(createNotification(CANCEL_REQUEST, params).toString());
+  }
+
+  /**
+   * Handles a message sent by an editor to the language server.
+   */
+  public void handleClientMessage(WebSocket conn, String message) {
+    JsonObject json = parse(message);
+    if (json == null) {
+      sendToServer(message);
+      return;
+    }
+    Client client = clients.computeIfAbsent(conn, c -> new Client(null, conn));
+    String method = getMethod(json);
+    JsonElement id = json.get("id");
+    if (method == null) {
+      // Response to a request made by the server
+      sendToServer(message);
+    } else if (id == null) {
+      handleClientNotification(client, method, json, message);
+    } else {
+      handleClientRequest(client, method, id, json);
+    }
+  }
+
+  private void handleClientRequest(Client client, String method, JsonElement id,
+      JsonObject json) {
+    if (SHUTDOWN.equals(method)) {
+      // The server lifecycle is not handled by the editors
+      client.send(createResponse(id, JsonNull.INSTANCE).toString());
+      return;
+    }
+    String uri = getDocumentUri(json);
+    if (uri != null && !isSynchronizedBy(client, uri)) {
+      client.send(createError(id, REQUEST_FAILED,
+          "The document is synchronized with the language server by another editor").toString());
+      return;
+    }
+    if (throttled && SUPERSEDABLE_METHODS.contains(method)) {
+      throttledRequests.incrementAndGet();
+      client.send(
+          createError(id, REQUEST_CANCELLED, "The language server is overloaded").toString());
+      return;
+    }
+    String supersedeKey = null;
+    if (SUPERSEDABLE_METHODS.contains(method)) {
+      supersedeKey = (uri != null) ? method + " " + uri : null;
+    }
+    PendingRequest request = new PendingRequest(client, id, method, supersedeKey);
+    if (CACHEABLE_METHODS.contains(method) && !answerFromCache(request, json)) {
+      return;
+    }
+    if (INITIALIZE.equals(method)) {
+      JsonElement cachedResult = null;
+      synchronized (this) {
+        if (initializeResult != null) {
+          cachedResult = initializeResult;
+        } else if (waitingInitialize != null) {
+          waitingInitialize.add(request);
+          return;
+        } else {
+          waitingInitialize = new ArrayList<>();
+          waitingInitialize.add(request);
+        }
+      }
+      if (cachedResult != null) {
+        client.send(createResponse(id, cachedResult).toString());
+        return;
+      }
+    }
+    long serverId = nextId.getAndIncrement();
+    pendingRequests.put(serverId, request);
+    client.requestIds.put(id.toString(), serverId);
+    json.addProperty("id", serverId);
+    if (INITIALIZE.equals(method)) {
+      synchronized (this) {
+        initializeRequest = json.deepCopy();
+      }
+    }
+    Long previousId = (supersedeKey != null)
+        ? client.latestRequests.put(supersedeKey, serverId)
+        : null;
+    sendToServer(json.toString());
+    if (previousId != null) {
+      supersede(previousId);
+    }
+  }
+
+  /**
+   * Answers a request with a cached result if possible. Otherwise, the request
+   * is prepared to cache its result.
+   * @return true if the request must be sent to the server
+   */
+  private boolean answerFromCache(PendingRequest request, JsonObject json) {
+    String uri = getDocumentUri(json);
+    Integer version = (uri != null) ? documentVersions.get(uri) : null;
+    if (version == null) {
+      return true;
+    }
+    JsonElement params = json.get("params");
+    String cacheParams = (params != null) ? params.toString() : "";
+    String result = responseCache.get(request.method, uri, version, cacheParams);
+    if (result != null) {
+      request.client.send("{\"jsonrpc\":\"2.0\",\"id\":" + request.originalId + ",\"result\":"
+          + result + "}");
+      return false;
+    }
+    request.cacheUri = uri;
+    request.cacheVersion = version;
+    request.cacheParams = cacheParams;
+    return true;
+  }
+
+  private void supersede(long serverId) {
+    PendingRequest request = pendingRequests.remove(serverId);
+    if (request == null) {
+      return;
+    }
+    request.client.requestIds.remove(request.originalId.toString());
+    supersededRequests.add(serverId);
+    supersededCount.incrementAndGet();
+    cancelInServer(serverId);
+    request.client.send(
+        createError(request.originalId, REQUEST_CANCELLED, "Superseded by a newer request")
+            .toString());
+  }
+
+  private void handleClientNotification(Client client, String method, JsonObject json,
+      String message) {
+    switch (method) {
+      case INITIALIZED:
+        synchronized (this) {
+          if (initializedSent) {
+            return;
+          }
+          initializedSent = true;
+        }
+        break;
+      case EXIT:
+        return;
+      case CANCEL_REQUEST:
+        JsonObject params = json.getAsJsonObject("params");
+        Long serverId = (params != null && params.has("id"))
+            ? client.requestIds.get(params.get("id").toString())
+            : null;
+        if (serverId == null) {
+          return;
+        }
+        params.addProperty("id", serverId);
+        sendToServer(json.toString());
+        return;
+      case DID_OPEN:
+        String openedUri = getDocumentUri(json);
+        if (openedUri != null) {
+          client.openUris.add(openedUri);
+          if (!openDocument(client, openedUri, json)) {
+            return;
+          }
+          updateDocumentVersion(openedUri, json);
+          LspDocument document = createDocument(openedUri, json);
+          if (document != null) {
+            documents.put(openedUri, document);
+          } else {
+            documents.remove(openedUri);
+          }
+        }
+        break;
+      case DID_CHANGE:
+        String changedUri = getDocumentUri(json);
+        if (changedUri != null && !isSynchronizedBy(client, changedUri)) {
+          // Another editor owns the document, the changes are kept for later
+          LspDocument heldDocument = client.heldDocuments.get(changedUri);
+          if (heldDocument != null && !applyDocumentChanges(heldDocument, json)) {
+            client.heldDocuments.remove(changedUri, heldDocument);
+          }
+          return;
+        }
+        if (changedUri != null) {
+          responseCache.invalidate(changedUri);
+          updateDocumentVersion(changedUri, json);
+          LspDocument document = documents.get(changedUri);
+          if (document != null && !applyDocumentChanges(document, json)) {
+            // The contents are unknown from now on, so they can't be restored
+            documents.remove(changedUri, document);
+          }
+          changes.submit(changedUri, json);
+          return;
+        }
+        break;
+      case DID_CHANGE_WATCHED_FILES:
+      case DID_CHANGE_CONFIGURATION:
+        responseCache.clear();
+        break;
+      case DID_CLOSE:
+        String closedUri = getDocumentUri(json);
+        if (closedUri != null && client.openUris.remove(closedUri)) {
+          closeDocument(client, closedUri);
+        }
+        return;
+      default:
+        break;
+    }
+    sendToServer(message);
+  }
+
+  private void updateDocumentVersion(String uri, JsonObject json) {
+    JsonElement version = json.getAsJsonObject("params").getAsJsonObject("textDocument")
+        .get("version");
+    if (version != null && version.isJsonPrimitive()) {
+      documentVersions.put(uri, version.getAsInt());
+    } else {
+      documentVersions.remove(uri);
+    }
+  }
+
+  /**
+   * Creates a copy of a document from its {@code didOpen} notification.
+   * @return the document, or null if the notification lacks its contents
+   */
+  private static LspDocument createDocument(String uri, JsonObject json) {
+    JsonObject textDocument = json.getAsJsonObject("params").getAsJsonObject("textDocument");
+    JsonElement languageId = textDocument.get("languageId");
+    JsonElement version = textDocument.get("version");
+    JsonElement text = textDocument.get("text");
+    if (languageId == null || version == null || text == null) {
+      return null;
+    }
+    return new LspDocument(uri, languageId.getAsString(), version.getAsInt(),
+        text.getAsString());
+  }
+
+  /**
+   * Applies the changes of a {@code didChange} notification to a document.
+   * @return false if the changes could not be applied
+   */
+  private static boolean applyDocumentChanges(LspDocument document, JsonObject json) {
+    JsonObject params = json.getAsJsonObject("params");
+    JsonElement version = params.getAsJsonObject("textDocument").get("version");
+    JsonElement changes = params.get("contentChanges");
+    synchronized (document) {
+      try {
+        for (JsonElement change : changes.getAsJsonArray()) {
+          document.applyChange(change.getAsJsonObject());
+        }
+        if (version != null && version.isJsonPrimitive()) {
+          document.setVersion(version.getAsInt());
+        }
+        return true;
+      } catch (RuntimeException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Registers an editor of a document. An editor that doesn't own it is only
+   * registered if its contents are known, so it can become the owner later.
+   * @return true if the editor owns the document, so its {@code didOpen} must
+   *         be sent to the server
+   */
+  private synchronized boolean openDocument(Client client, String uri, JsonObject json) {
+    List<Client> editors = documentEditors.computeIfAbsent(uri, u -> new ArrayList<>());
+    if (editors.isEmpty()) {
+      editors.add(client);
+      return true;
+    }
+    LspDocument document = createDocument(uri, json);
+    // The server must not receive an open document twice
+    if (document != null && !editors.contains(client)) {
+      editors.add(client);
+      client.heldDocuments.put(uri, document);
+    }
+    return false;
+  }
+
+  private void closeDocument(Client client, String uri) {
+    LspDocument nextDocument = null;
+    synchronized (this) {
+      List<Client> editors = documentEditors.get(uri);
+      if (editors == null || editors.isEmpty()) {
+        return;
+      }
+      boolean owner = editors.get(0) == client;
+      editors.remove(client);
+      if (!owner) {
+        client.heldDocuments.remove(uri);
+        return;
+      }
+      while (!editors.isEmpty() && nextDocument == null) {
+        // The next editor becomes the owner, unless its changes failed
+        nextDocument = editors.get(0).heldDocuments.remove(uri);
+        if (nextDocument == null) {
+          editors.remove(0);
+        }
+      }
+      if (editors.isEmpty()) {
+        documentEditors.remove(uri);
+      }
+    }
+    documentVersions.remove(uri);
+    documents.remove(uri);
+    responseCache.invalidate(uri);
+    JsonObject textDocument = new JsonObject();
+    textDocument.addProperty("uri", uri);
+    JsonObject params = new JsonObject();
+    params.add("textDocument", textDocument);
+    sendToServer(createNotification(DID_CLOSE, params).toString());
+    if (nextDocument != null) {
+      synchronized (nextDocument) {
+        documents.put(uri, nextDocument);
+        documentVersions.put(uri, nextDocument.getVersion());
+        sendToServer(createNotification(DID_OPEN, nextDocument.toDidOpenParams()).toString());
+      }
+    }
+  }
+
+  /**
+   * Whether the changes of an editor to a document must reach the server,
+   * because it owns the document or nobody opened it.
+   */
+  private boolean isSynchronizedBy(Client client, String uri) {
+    Client owner = getDocumentOwner(uri);
+    return owner == null || owner == client;
+  }
+
+  /**
+   * Gets the editor that owns a document.
+   * @return the editor, or null if no editor has the document open
+   */
+  private synchronized Client getDocumentOwner(String uri) {
+    List<Client> editors = documentEditors.get(uri);
+    return (editors != null && !editors.isEmpty()) ? editors.get(0) : null;
+  }
+
+  /**
+   * Handles a message sent by the language server to the editors.
+   */
+  public void handleServerMessage(String message) {
+    JsonObject json = parse(message);
+    if (json == null) {
+      broadcast(message);
+      return;
+    }
+    String method = getMethod(json);
+    JsonElement id = json.get("id");
+    if (method == null && id != null) {
+      handleServerResponse(id, json);
+    } else if (method != null && id != null) {
+      handleServerRequest(id, json, message);
+    } else if (PUBLISH_DIAGNOSTICS.equals(method)) {
+      diagnostics.submit(getParamsUri(json), message);
+    } else {
+      broadcast(message);
+    }
+  }
+
+  private void handleServerResponse(JsonElement id, JsonObject json) {
+    if (!id.isJsonPrimitive() || !id.getAsJsonPrimitive().isNumber()) {
+      return;
+    }
+    long serverId = id.getAsLong();
+    synchronized (this) {
+      if (serverId == restoreInitializeId) {
+        // The editors were already initialized with the previous server
+        restoreInitializeId = -1;
+        JsonElement result = json.get("result");
+        if (result != null && !result.isJsonNull()) {
+          initializeResult = result;
+        }
+        return;
+      }
+    }
+    CompletableFuture<JsonObject> shutdownRequest = shutdownRequests.remove(serverId);
+    if (shutdownRequest != null) {
+      shutdownRequest.complete(json);
+      return;
+    }
+    PendingRequest request = takePendingRequest(serverId);
+    if (request == null) {
+      return;
+    }
+    if (INITIALIZE.equals(request.method)) {
+      handleInitializeResponse(json);
+    } else {
+      cacheResult(request, json);
+      json.add("id", request.originalId);
+      request.client.send(json.toString());
+    }
+  }
+
+  private PendingRequest takePendingRequest(long serverId) {
+    PendingRequest request = pendingRequests.remove(serverId);
+    if (request == null) {
+      if (supersededRequests.remove(serverId)) {
+        droppedResponses.incrementAndGet();
+      }
+      return null;
+    }
+    request.client.requestIds.remove(request.originalId.toString());
+    if (request.supersedeKey != null) {
+      request.client.latestRequests.remove(request.supersedeKey, serverId);
+    }
+    return request;
+  }
+
+  /**
+   * Handles a message of the language server too big to be decoded as a
+   * string. It is sent to the editors without being parsed, rewriting only the
+   * id if it is a response. The diagnostics are still coalesced and sent only
+   * to the owner of their document.
+   * @param content the UTF-8 bytes of the message
+   * @param length  the length of the message
+   */
+  public void handleLargeServerMessage(byte[] content, int length) {
+    LspMessageScanner scanner = new LspMessageScanner();
+    scanner.feed(content, 0, length);
+    String id = scanner.getId();
+    if (id == null) {
+      String method = scanner.getMethod();
+      String uri = scanner.getUri();
+      if (method != null && PUBLISH_DIAGNOSTICS.equals(PARSER.parse(method).getAsString())) {
+        diagnostics.submit((uri != null) ? PARSER.parse(uri).getAsString() : null,
+            new String(content, 0, length, StandardCharsets.UTF_8));
+        return;
+      }
+      for (WebSocket conn : clients.keySet()) {
+        if (conn.isOpen()) {
+          sendFragments(conn, content, length, null, 0, 0);
+        }
+      }
+      return;
+    }
+    if (scanner.hasMethod()) {
+      for (WebSocket conn : clients.keySet()) {
+        if (conn.isOpen()) {
+          sendFragments(conn, content, length, null, 0, 0);
+          return;
+        }
+      }
+      sendToServer(createResponse(PARSER.parse(id), JsonNull.INSTANCE).toString());
+      return;
+    }
+    Long serverId = parseServerId(id);
+    PendingRequest request = (serverId != null) ? pendingRequests.get(serverId) : null;
+    if (request == null || INITIALIZE.equals(request.method)) {
+      // Internal and unknown responses are not worth streaming
+      handleServerMessage(new String(content, 0, length, StandardCharsets.UTF_8));
+      return;
+    }
+    request = takePendingRequest(serverId);
+    if (request != null) {
+      byte[] originalId = request.originalId.toString().getBytes(StandardCharsets.UTF_8);
+      sendFragments(request.client.conn, content, length, originalId,
+          (int) scanner.getIdStart(), (int) scanner.getIdEnd());
+    }
+  }
+
+  /**
+   * Handles a message of the language server that exceeded the maximum message
+   * size and was discarded. If it was a response, the editor is answered with a
+   * {@code RequestFailed} error instead.
+   * @param  scanner the scanner that read the discarded message
+   * @return         true if an editor was answered with an error
+   */
+  public boolean handleOversizedServerMessage(LspMessageScanner scanner) {
+    String id = scanner.getId();
+    Long serverId = (id != null && !scanner.hasMethod()) ? parseServerId(id) : null;
+    if (serverId == null) {
+      return false;
+    }
+    CompletableFuture<JsonObject> shutdownRequest = shutdownRequests.remove(serverId);
+    JsonObject error = createError(PARSER.parse(id), REQUEST_FAILED,
+        "The response of the language server exceeds the maximum message size");
+    if (shutdownRequest != null) {
+      shutdownRequest.complete(error);
+      return false;
+    }
+    PendingRequest request = takePendingRequest(serverId);
+    if (request == null) {
+      return false;
+    }
+    if (INITIALIZE.equals(request.method)) {
+      handleInitializeResponse(error);
+    } else {
+      error.add("id", request.originalId);
+      request.client.send(error.toString());
+    }
+    return true;
+  }
+
+  private static Long parseServerId(String id) {
+    try {
+      return Long.valueOf(id);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private void cacheResult(PendingRequest request, JsonObject json) {
+    JsonElement result = json.get("result");
+    if (request.cacheVersion == null || result == null || json.has("error")) {
+      return;
+    }
+    // The document may have changed while the server was computing the result
+    if (request.cacheVersion.equals(documentVersions.get(request.cacheUri))) {
+      responseCache.put(request.method, request.cacheUri, request.cacheVersion,
+          request.cacheParams, result.toString());
+    }
+  }
+
+  private void handleInitializeResponse(JsonObject json) {
+    List<PendingRequest> waiting;
+    synchronized (this) {
+      waiting = waitingInitialize;
+      waitingInitialize = null;
+      JsonElement result = json.get("result");
+      if (result != null && !result.isJsonNull()) {
+        initializeResult = result;
+      }
+    }
+    if (waiting != null) {
+      for (PendingRequest request : waiting) {
+        json.add("id", request.originalId);
+        request.client.send(json.toString());
+      }
+    }
+  }
+
+  private void handleServerRequest(JsonElement id, JsonObject json, String message) {
+    String uri = getRequestUri(json);
+    Client owner = (uri != null) ? getDocumentOwner(uri) : null;
+    if (owner != null && owner.conn.isOpen()) {
+      owner.send(message);
+      return;
+    }
+    for (WebSocket conn : clients.keySet()) {
+      if (conn.isOpen()) {
+        send(conn, message);
+        return;
+      }
+    }
+    // Nobody can answer the request, so the server is not left waiting
+    sendToServer(createResponse(id, JsonNull.INSTANCE).toString());
+  }
+
+  private void sendToDocumentClients(String uri, String message) {
+    // The other editors of the document may have other contents
+    Client owner = (uri != null) ? getDocumentOwner(uri) : null;
+    if (owner != null) {
+      owner.send(message);
+    }
+  }
+
+  private void broadcast(String message) {
+    for (WebSocket conn : clients.keySet()) {
+      send(conn, message);
+    }
+  }
+
+  private static void send(WebSocket conn, String message) {
+    if (conn.isOpen()) {
+      // The frames of a fragmented message must not be interleaved with others
+      synchronized (conn) {
+        try {
+          conn.send(message);
+        } catch (WebsocketNotConnectedException e) {
+          // The connection was closed meanwhile
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends a message as a sequence of fragmented frames, optionally replacing
+   * the bytes between {@code replaceStart} and {@code replaceEnd}.
+   */
+  private static void sendFragments(WebSocket conn, byte[] content, int length,
+      byte[] replacement, int replaceStart, int replaceEnd) {
+    List<ByteBuffer> parts = new ArrayList<>();
+    if (replacement != null) {
+      parts.add(ByteBuffer.wrap(content, 0, replaceStart));
+      parts.add(ByteBuffer.wrap(replacement));
+      parts.add(ByteBuffer.wrap(content, replaceEnd, length - replaceEnd));
+    } else {
+      parts.add(ByteBuffer.wrap(content, 0, length));
+    }
+    long remaining = parts.stream().mapToLong(ByteBuffer::remaining).sum();
+    if (!conn.isOpen()) {
+      return;
+    }
+    synchronized (conn) {
+      try {
+        boolean first = true;
+        for (ByteBuffer part : parts) {
+          while (part.hasRemaining()) {
+            ByteBuffer fragment = part.slice();
+            fragment.limit(Math.min(FRAGMENT_SIZE, part.remaining()));
+            part.position(part.position() + fragment.remaining());
+            remaining -= fragment.remaining();
+            DataFrame frame = first ? new TextFrame() : new ContinuousFrame();
+            frame.setPayload(fragment);
+            frame.setFin(remaining == 0);
+            conn.sendFrame(frame);
+            first = false;
+          }
+        }
+      } catch (WebsocketNotConnectedException e) {
+        // The connection was closed meanwhile
+      }
+    }
+  }
+
+  /**
+   * Handles the loss of the language server. The pending requests are answered
+   * with a {@code RequestCancelled} error, except the initialize handshake,
+   * which is sent again to the next server.
+   */
+  public void serverLost() {
+    supersededRequests.clear();
+    for (Map.Entry<Long, PendingRequest> entry : pendingRequests.entrySet()) {
+      PendingRequest request = entry.getValue();
+      if (INITIALIZE.equals(request.method)
+          || !pendingRequests.remove(entry.getKey(), request)) {
+        continue;
+      }
+      request.client.requestIds.remove(request.originalId.toString());
+      if (request.supersedeKey != null) {
+        request.client.latestRequests.remove(request.supersedeKey, entry.getKey());
+      }
+      request.client.send(
+          createError(request.originalId, REQUEST_CANCELLED, "The language server stopped")
+              .toString());
+    }
+  }
+
+  /**
+   * Sends the {@code shutdown} request to the language server. The editors
+   * can't shut down the server, so this is only done by the proxy owner.
+   * @return a future completed with the response of the server
+   */
+  public CompletableFuture<JsonObject> shutdownServer() {
+    long serverId = nextId.getAndIncrement();
+    CompletableFuture<JsonObject> response = new CompletableFuture<>();
+    shutdownRequests.put(serverId, response);
+    response.whenComplete((result, error) -> shutdownRequests.remove(serverId));
+    JsonObject request = createNotification(SHUTDOWN, null);
+    request.addProperty("id", serverId);
+    sendToServer(request.toString());
+    return response;
+  }
+
+  /**
+   * Sends the {@code exit} notification to the language server.
+   */
+  public void exitServer() {
+    sendToServer(createNotification(EXIT, null).toString());
+  }
+
+  /**
+   * Gets the messages that bring a new language server to the state of the
+   * previous one: the {@code initialize} handshake made by the editors and the
+   * {@code didOpen} of every open document, with its current contents.
+   * @return the messages to send to the server before any other one, or an
+   *         empty list if the server was never initialized
+   */
+  public List<String> getRestoreMessages() {
+    List<String> messages = new ArrayList<>();
+    // The held changes are already part of the restored documents
+    changes.discard();
+    synchronized (this) {
+      if (initializeRequest == null) {
+        return messages;
+      }
+      if (initializeResult == null) {
+        // The editors are still waiting the response of the original request
+        messages.add(initializeRequest.toString());
+      } else {
+        JsonObject request = initializeRequest.deepCopy();
+        restoreInitializeId = nextId.getAndIncrement();
+        request.addProperty("id", restoreInitializeId);
+        messages.add(request.toString());
+      }
+      if (initializedSent) {
+        messages.add(createNotification(INITIALIZED, new JsonObject()).toString());
+      }
+    }
+    for (LspDocument document : documents.values()) {
+      synchronized (document) {
+        messages.add(createNotification(DID_OPEN, document.toDidOpenParams()).toString());
+      }
+    }
+    return messages;
+  }
+
+  /**
+   * Gets the result of the initialize handshake made with the server.
+   * @return the result, or null if the server was not initialized yet
+   */
+  public synchronized JsonElement getInitializeResult() {
+    return initializeResult;
+  }
+
+  public int getClientsCount() {
+    return clients.size();
+  }
+
+  /**
+   * Gets the amount of requests cancelled because a newer request of the same
+   * kind was made for the same document.
+   * @return the amount of superseded requests
+   */
+  public long getSupersededRequests() {
+    return supersededCount.get();
+  }
+
+  /**
+   * Gets the amount of responses of superseded requests that the server sent
+   * anyway and were not forwarded to the editors.
+   * @return the amount of dropped responses
+   */
+  public long getDroppedResponses() {
+    return droppedResponses.get();
+  }
+
+  /**
+   * Sets whether the server is overloaded. Meanwhile, completion, hover and
+   * signature help requests are answered as cancelled without reaching it.
+   */
+  public void setThrottled(boolean throttled) {
+    this.throttled = throttled;
+  }
+
+  public boolean isThrottled() {
+    return throttled;
+  }
+
+  /**
+   * Gets the amount of requests not sent to the server because it was
+   * overloaded.
+   * @return the amount of throttled requests
+   */
+  public long getThrottledRequests() {
+    return throttledRequests.get();
+  }
+
+  /**
+   * Gets the amount of diagnostics notifications not sent to the editors
+   * because a newer one for the same document replaced them.
+   * @return the amount of suppressed notifications
+   */
+  public long getSuppressedDiagnostics() {
+    return diagnostics.getSuppressed();
+  }
+
+  public LspResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  public LspDiagnosticsCoalescer getDiagnosticsCoalescer() {
+    return diagnostics;
+  }
+
+  /**
+   * Checks whether a message synchronizes the contents of a document, so it is
+   * not needed by a server restored with {@link #getRestoreMessages()}.
+   */
+  static boolean isDocumentSync(String message) {
+    JsonObject json = parse(message);
+    String method = (json != null) ? getMethod(json) : null;
+    return DID_OPEN.equals(method) || DID_CHANGE.equals(method) || DID_CLOSE.equals(method);
+  }
+
+  public LspChangeAggregator getChangeAggregator() {
+    return changes;
+  }
+
+  static JsonObject parse(String message) {
+    try {
+      JsonElement element = PARSER.parse(message);
+      return element.isJsonObject() ? element.getAsJsonObject() : null;
+    } catch (JsonParseException | IllegalStateException e) {
+      return null;
+    }
+  }
+
+  static String getMethod(JsonObject json) {
+    JsonElement method = json.get("method");
+    return (method != null && method.isJsonPrimitive()) ? method.getAsString() : null;
+  }
+
+  static String getDocumentUri(JsonObject json) {
+    JsonObject params = json.getAsJsonObject("params");
+    if (params == null || !params.has("textDocument")) {
+      return null;
+    }
+    JsonElement uri = params.getAsJsonObject("textDocument").get("uri");
+    return (uri != null) ? uri.getAsString() : null;
+  }
+
+  /**
+   * Gets the uri of the document that a request of the server is about. Apart
+   * from the usual params, it looks into the edits of {@code workspace/applyEdit}
+   * and the items of {@code workspace/configuration}.
+   * @return the first uri found, or null if there is none
+   */
+  static String getRequestUri(JsonObject json) {
+    String uri = getDocumentUri(json);
+    if (uri == null) {
+      uri = getParamsUri(json);
+    }
+    JsonElement params = json.get("params");
+    if (uri != null || params == null || !params.isJsonObject()) {
+      return uri;
+    }
+    JsonElement edit = params.getAsJsonObject().get("edit");
+    if (edit != null && edit.isJsonObject()) {
+      JsonElement changes = edit.getAsJsonObject().get("changes");
+      if (changes != null && changes.isJsonObject() && changes.getAsJsonObject().size() > 0) {
+        return changes.getAsJsonObject().keySet().iterator().next();
+      }
+      JsonElement documentChanges = edit.getAsJsonObject().get("documentChanges");
+      if (documentChanges != null && documentChanges.isJsonArray()) {
+        for (JsonElement change : documentChanges.getAsJsonArray()) {
+          JsonElement textDocument = change.getAsJsonObject().get("textDocument");
+          if (textDocument != null && textDocument.isJsonObject()) {
+            return textDocument.getAsJsonObject().get("uri").getAsString();
+          }
+        }
+      }
+    }
+    JsonElement items = params.getAsJsonObject().get("items");
+    if (items != null && items.isJsonArray()) {
+      for (JsonElement item : items.getAsJsonArray()) {
+        JsonElement scopeUri = item.isJsonObject() ? item.getAsJsonObject().get("scopeUri") : null;
+        if (scopeUri != null && scopeUri.isJsonPrimitive()) {
+          return scopeUri.getAsString();
+        }
+      }
+    }
+    return null;
+  }
+
+  static String getParamsUri(JsonObject json) {
+    JsonObject params = json.getAsJsonObject("params");
+    JsonElement uri = (params != null) ? params.get("uri") : null;
+    return (uri != null) ? uri.getAsString() : null;
+  }
+
+  static JsonObject createResponse(JsonElement id, JsonElement result) {
+    JsonObject response = new JsonObject();
+    response.addProperty("jsonrpc", "2.0");
+    response.add("id", id);
+    response.add("result", result);
+    return response;
+  }
+
+  static JsonObject createError(JsonElement id, int code, String message) {
+    JsonObject error = new JsonObject();
+    error.addProperty("code", code);
+    error.addProperty("message", message);
+    JsonObject response = new JsonObject();
+    response.addProperty("jsonrpc", "2.0");
+    response.add("id", id);
+    response.add("error", error);
+    return response;
+  }
+
+  static JsonObject createNotification(String method, JsonObject params) {
+    JsonObject notification = new JsonObject();
+    notification.addProperty("jsonrpc", "2.0");
+    notification.addProperty("method", method);
+    if (params != null) {
+      notification.add("params", params);
+    }
+    return notification;
+  }
+
+  private static class Client {
+    private final String id;
+    private final Set<String> openUris = ConcurrentHashMap.newKeySet();
+    private final Map<String, LspDocument> heldDocuments = new ConcurrentHashMap<>();
+    private final Map<String, Long> requestIds = new ConcurrentHashMap<>();
+    private final Map<String, Long> latestRequests = new ConcurrentHashMap<>();
+    private volatile WebSocket conn;
+    private boolean detached = false;
+
+    private Client(String id, WebSocket conn) {
+      this.id = id;
+      this.conn = conn;
+    }
+
+    private void send(String message) {
+      LspClientMultiplexer.send(conn, message);
+    }
+  }
+
+  private static class PendingRequest {
+    private final Client client;
+    private final JsonElement originalId;
+    private final String method;
+    private final String supersedeKey;
+    private String cacheUri;
+    private Integer cacheVersion;
+    private String cacheParams;
+
+    private PendingRequest(Client client, JsonElement originalId, String method,
+        String supersedeKey) {
+      this.client = client;
+      this.originalId = originalId;
+      this.method = method;
+      this.supersedeKey = supersedeKey;
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces the diagnostics that a language server publishes for the same
+ * document. A notification is held for a short window, and if a newer one for
+ * the same uri arrives meanwhile, only the newer is forwarded. A notification
+ * is never held longer than a maximum delay, so the diagnostics keep updating
+ * while the server publishes without pause.
+ */
+public class LspDiagnosticsCoalescer {
+  private static final ScheduledExecutorService SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Lsp diagnostics");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * Default milliseconds that diagnostics are held waiting a newer version. Use
+   * 0 to forward every notification. Can be changed with the
+   * {@code equo.monaco.lsp.diagnosticsDelay} system property.
+   */
+  public static final long DEFAULT_DELAY = Long.getLong("equo.monaco.lsp.diagnosticsDelay", 100);
+
+  /**
+   * Default maximum milliseconds that diagnostics are held. Can be changed with
+   * the {@code equo.monaco.lsp.diagnosticsMaxDelay} system property.
+   */
+  public static final long DEFAULT_MAX_DELAY =
+      Long.getLong("equo.monaco.lsp.diagnosticsMaxDelay", 500);
+
+  private final BiConsumer<String, String> sender;
+  private final long delay;
+  private final long maxDelay;
+  private final Map<String, PendingDiagnostics> pending = new HashMap<>();
+  private final AtomicLong suppressed = new AtomicLong();
+
+  public LspDiagnosticsCoalescer(BiConsumer<String, String> sender) {
+    this(sender, DEFAULT_DELAY, DEFAULT_MAX_DELAY);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param sender   sends a notification, given its uri and the message
+   * @param delay    milliseconds that a notification is held waiting a newer
+   *                 one. Use 0 to forward every notification
+   * @param maxDelay maximum milliseconds that a notification is held
+   */
+  public LspDiagnosticsCoalescer(BiConsumer<String, String> sender, long delay, long maxDelay) {
+    this.sender = sender;
+    this.delay = delay;
+    this.maxDelay = Math.max(delay, maxDelay);
+  }
+
+  /**
+   * Submits a diagnostics notification to be forwarded.
+   * @param uri     the uri of the document
+   * @param message the notification
+   */
+  public void submit(String uri, String message) {
+    if (delay <= 0 || uri == null) {
+      sender.accept(uri, message);
+      return;
+    }
+    synchronized (pending) {
+      long now = System.currentTimeMillis();
+      PendingDiagnostics diagnostics = pending.get(uri);
+      if (diagnostics == null) {
+        diagnostics = new PendingDiagnostics(now);
+        pending.put(uri, diagnostics);
+      } else {
+        suppressed.incrementAndGet();
+        diagnostics.flushTask.cancel(false);
+      }
+      diagnostics.message = message;
+      long flushDelay = Math.min(delay, diagnostics.firstTime + maxDelay - now);
+      diagnostics.flushTask =
+          SCHEDULER.schedule(() -> flush(uri), Math.max(0, flushDelay), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flush(String uri) {
+    PendingDiagnostics diagnostics;
+    synchronized (pending) {
+      diagnostics = pending.remove(uri);
+    }
+    if (diagnostics != null) {
+      sender.accept(uri, diagnostics.message);
+    }
+  }
+
+  /**
+   * Discards the held notifications.
+   */
+  public void clear() {
+    synchronized (pending) {
+      for (PendingDiagnostics diagnostics : pending.values()) {
+        diagnostics.flushTask.cancel(false);
+      }
+      pending.clear();
+    }
+  }
+
+  /**
+   * Gets the amount of notifications not forwarded because a newer one for the
+   * same document replaced them.
+   * @return the amount of suppressed notifications
+   */
+  public long getSuppressed() {
+    return suppressed.get();
+  }
+
+  private static class PendingDiagnostics {
+    private final long firstTime;
+    private String message;
+    private ScheduledFuture<?> flushTask;
+
+    private PendingDiagnostics(long firstTime) {
+      this.firstTime = firstTime;
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Contents of a document opened in a language server, kept up to date with the
+ * changes sent by the editors. Used to open the document again if the server
+ * is restarted.
+ */
+public class LspDocument {
+  private final String uri;
+  private final String languageId;
+  private final StringBuilder text;
+  private int version;
+
+  /**
+   * Parameterized constructor.
+   */
+  public LspDocument(String uri, String languageId, int version, String text) {
+    this.uri = uri;
+    this.languageId = languageId;
+    this.version = version;
+    this.text = new StringBuilder(text);
+  }
+
+  /**
+   * Applies a change of a {@code textDocument/didChange} notification.
+   * @param change a {@code TextDocumentContentChangeEvent}, replacing either a
+   *               range or the whole document
+   */
+  public void applyChange(JsonObject change) {
+    String newText = change.get("text").getAsString();
+    JsonElement range = change.get("range");
+    if (range == null || range.isJsonNull()) {
+      text.setLength(0);
+      text.append(newText);
+      return;
+    }
+    int start = getOffset(range.getAsJsonObject().getAsJsonObject("start"));
+    int end = getOffset(range.getAsJsonObject().getAsJsonObject("end"));
+    text.replace(start, Math.max(start, end), newText);
+  }
+
+  /**
+   * Gets the offset of a position. Characters are counted in UTF-16 code units,
+   * as Java strings do.
+   */
+  private int getOffset(JsonObject position) {
+    int line = position.get("line").getAsInt();
+    int character = position.get("character").getAsInt();
+    int offset = 0;
+    for (int i = 0; i < line && offset < text.length(); i++) {
+      offset = getNextLineStart(offset);
+    }
+    int lineEnd = offset;
+    while (lineEnd < text.length() && text.charAt(lineEnd) != '\n'
+        && text.charAt(lineEnd) != '\r') {
+      lineEnd++;
+    }
+    return Math.min(offset + character, lineEnd);
+  }
+
+  private int getNextLineStart(int offset) {
+    for (int i = offset; i < text.length(); i++) {
+      char current = text.charAt(i);
+      if (current == '\n') {
+        return i + 1;
+      }
+      if (current == '\r') {
+        return (i + 1 < text.length() && text.charAt(i + 1) == '\n') ? i + 2 : i + 1;
+      }
+    }
+    return text.length();
+  }
+
+  public String getUri() {
+    return uri;
+  }
+
+  public String getLanguageId() {
+    return languageId;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
+
+  public String getText() {
+    return text.toString();
+  }
+
+  /**
+   * Creates the params of a {@code textDocument/didOpen} notification with the
+   * current contents of the document.
+   */
+  public JsonObject toDidOpenParams() {
+    JsonObject textDocument = new JsonObject();
+    textDocument.addProperty("uri", uri);
+    textDocument.addProperty("languageId", languageId);
+    textDocument.addProperty("version", version);
+    textDocument.addProperty("text", text.toString());
+    JsonObject params = new JsonObject();
+    params.add("textDocument", textDocument);
+    return params;
+  }
+
+}
@@ -0,0 +1,47 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+/**
+ * Handles the language server messages that are too big to be decoded as a
+ * string, see {@link LspMessageReader#setLargeMessageHandler}.
+ */
+public interface LspLargeMessageHandler {
+
+  /**
+   * Handles a message bigger than the streaming threshold.
+   * @param content the UTF-8 bytes of the message. The array is only valid
+   *                during the call
+   * @param length  the length of the message
+   */
+  void handleLargeMessage(byte[] content, int length);
+
+  /**
+   * Handles a message bigger than the maximum message size, which was
+   * discarded while it was read.
+   * @param scanner the scanner that read the discarded message
+   * @param length  the length of the message
+   */
+  void handleOversizedMessage(LspMessageScanner scanner, long length);
+
+}
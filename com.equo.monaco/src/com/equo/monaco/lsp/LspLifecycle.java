@@ -0,0 +1,64 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+
+package com.equo.monaco.lsp;
+
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+
+/**
+ * Stops the language servers started by the bundle, including the warm ones
+ * of the {@link LspServerPool}, and the shared {@link LspWsEndpoint} when the
+ * bundle is stopped. A shutdown hook does the same if the JVM exits without
+ * stopping the bundle, so no server process is left orphaned.
+ */
+@Component
+public class LspLifecycle {
+  private final Thread shutdownHook = new Thread(LspLifecycle::stopAll, "Lsp shutdown");
+
+  @Activate
+  public void activate() {
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Stops the servers and the endpoint.
+   */
+  @Deactivate
+  public void deactivate() {
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // The JVM is shutting down, the hook already stops everything
+      return;
+    }
+    stopAll();
+  }
+
+  private static void stopAll() {
+    LspServerPool.stopAll();
+    LspWsEndpoint.stopInstance();
+  }
+
+}
@@ -0,0 +1,235 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads the messages written by a language server using the framing of the LSP
+ * base protocol. Bytes are read in blocks into a reusable buffer, headers are
+ * parsed incrementally and each payload is decoded as UTF-8 once it is
+ * complete, so a single read may produce several messages or just a part of
+ * one.
+ *
+ * <p>If a {@link LspLargeMessageHandler} is set, the messages bigger than the
+ * streaming threshold are given to it as bytes instead of being decoded, and
+ * the messages bigger than the maximum size are discarded while they are read,
+ * without being buffered.
+ */
+public class LspMessageReader {
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+  private static final int MAX_RETAINED_CONTENT_SIZE = 1024 * 1024;
+  private static final String CONTENT_LENGTH_HEADER = "content-length";
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer readBuffer;
+
+  private byte[] headerLine = new byte[128];
+  private int headerLineLength = 0;
+  private long contentLength = -1;
+
+  private byte[] content = new byte[DEFAULT_BUFFER_SIZE];
+  private long contentRead = 0;
+  private boolean readingContent = false;
+
+  private LspLargeMessageHandler largeMessageHandler = null;
+  private long streamingThreshold = MAX_ARRAY_SIZE;
+  private long maxMessageSize = MAX_ARRAY_SIZE;
+  private LspMessageScanner discarded = null;
+
+  public LspMessageReader(InputStream streamIn) {
+    this(streamIn, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param streamIn   the stream where the language server writes its messages
+   * @param bufferSize size of the blocks read from the stream
+   */
+  public LspMessageReader(InputStream streamIn, int bufferSize) {
+    this((streamIn != null) ? Channels.newChannel(streamIn) : null, bufferSize);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param channel    the channel where the language server writes its
+   *                   messages
+   * @param bufferSize size of the blocks read from the channel
+   */
+  public LspMessageReader(ReadableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.readBuffer = ByteBuffer.allocate(bufferSize);
+  }
+
+  /**
+   * Sets the handler of the messages too big to be decoded as a string.
+   * @param handler            receives the big messages
+   * @param streamingThreshold size in bytes above which a message is given to
+   *                           the handler instead of being decoded
+   * @param maxMessageSize     size in bytes above which a message is discarded
+   */
+  public void setLargeMessageHandler(LspLargeMessageHandler handler, long streamingThreshold,
+      long maxMessageSize) {
+    this.largeMessageHandler = handler;
+    this.maxMessageSize = Math.min(maxMessageSize, MAX_ARRAY_SIZE);
+    this.streamingThreshold = Math.min(streamingThreshold, this.maxMessageSize);
+  }
+
+  /**
+   * Reads the next block of bytes from the stream, blocking until some are
+   * available, and passes every message completed by them to the consumer.
+   * @param  consumer    receives each complete message payload
+   * @return             false if the end of the stream was reached
+   * @throws IOException if the stream could not be read
+   */
+  public boolean read(Consumer<String> consumer) throws IOException {
+    readBuffer.clear();
+    int readed = channel.read(readBuffer);
+    if (readed < 0) {
+      return false;
+    }
+    readBuffer.flip();
+    process(readBuffer, consumer);
+    return true;
+  }
+
+  /**
+   * Parses the given bytes, continuing any message left incomplete by a previous
+   * call.
+   * @param data     bytes written by the language server
+   * @param consumer receives each complete message payload
+   */
+  public void process(ByteBuffer data, Consumer<String> consumer) {
+    while (data.hasRemaining()) {
+      if (readingContent && discarded != null) {
+        discardContent(data);
+      } else if (readingContent) {
+        int toCopy = (int) Math.min(data.remaining(), contentLength - contentRead);
+        data.get(content, (int) contentRead, toCopy);
+        contentRead += toCopy;
+        if (contentRead == contentLength) {
+          completeMessage(consumer);
+        }
+      } else {
+        readHeaderByte(data.get());
+      }
+    }
+  }
+
+  private void readHeaderByte(byte value) {
+    if (value != '\n') {
+      if (headerLineLength == headerLine.length) {
+        headerLine = Arrays.copyOf(headerLine, headerLine.length * 2);
+      }
+      headerLine[headerLineLength++] = value;
+      return;
+    }
+    int length = headerLineLength;
+    if (length > 0 && headerLine[length - 1] == '\r') {
+      length--;
+    }
+    headerLineLength = 0;
+    if (length > 0) {
+      parseHeader(new String(headerLine, 0, length, StandardCharsets.US_ASCII));
+    } else if (contentLength >= 0) {
+      startContent();
+    }
+  }
+
+  private void parseHeader(String header) {
+    int separator = header.indexOf(':');
+    if (separator < 0) {
+      return;
+    }
+    String name = header.substring(0, separator).trim();
+    if (CONTENT_LENGTH_HEADER.equalsIgnoreCase(name)) {
+      try {
+        contentLength = Long.parseLong(header.substring(separator + 1).trim());
+      } catch (NumberFormatException e) {
+        contentLength = -1;
+      }
+    }
+  }
+
+  private void startContent() {
+    contentRead = 0;
+    readingContent = true;
+    if (contentLength > maxMessageSize) {
+      discarded = new LspMessageScanner();
+    } else if (content.length < contentLength) {
+      content = new byte[(int) contentLength];
+    }
+  }
+
+  /**
+   * Scans the bytes of a message too big to be buffered, so the handler can
+   * still know which request it answers.
+   */
+  private void discardContent(ByteBuffer data) {
+    int toSkip = (int) Math.min(data.remaining(), contentLength - contentRead);
+    for (int i = 0; i < toSkip; i++) {
+      discarded.feed(data.get());
+    }
+    contentRead += toSkip;
+    if (contentRead == contentLength) {
+      LspMessageScanner scanner = discarded;
+      long length = contentLength;
+      discarded = null;
+      resetContent();
+      if (largeMessageHandler != null) {
+        largeMessageHandler.handleOversizedMessage(scanner, length);
+      }
+    }
+  }
+
+  private void completeMessage(Consumer<String> consumer) {
+    final int length = (int) contentLength;
+    if (largeMessageHandler != null && length > streamingThreshold) {
+      final byte[] message = content;
+      resetContent();
+      largeMessageHandler.handleLargeMessage(message, length);
+      return;
+    }
+    final String message = new String(content, 0, length, StandardCharsets.UTF_8);
+    resetContent();
+    consumer.accept(message);
+  }
+
+  private void resetContent() {
+    if (content.length > MAX_RETAINED_CONTENT_SIZE) {
+      content = new byte[DEFAULT_BUFFER_SIZE];
+    }
+    contentLength = -1;
+    contentRead = 0;
+    readingContent = false;
+  }
+
+}
@@ -0,0 +1,250 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans the bytes of a JSON-RPC message, one at a time and without parsing it,
+ * to find the position of its {@code id}, its {@code method} and the
+ * {@code params.uri} of the document it refers to. Used for messages too big to
+ * be parsed as a whole.
+ */
+public class LspMessageScanner {
+  private static final int MAX_KEY_LENGTH = 16;
+  private static final int MAX_ID_LENGTH = 256;
+  private static final int MAX_VALUE_LENGTH = 8192;
+  private static final int ID_NONE = 0;
+  private static final int ID_STRING = 1;
+  private static final int ID_LITERAL = 2;
+  private static final int ID_DONE = 3;
+
+  private long position = 0;
+  private int depth = 0;
+  private boolean inString = false;
+  private boolean escape = false;
+  private boolean keyExpected = false;
+  private boolean readingKey = false;
+  private boolean valueExpected = false;
+  private final StringBuilder key = new StringBuilder();
+  private String currentKey = null;
+  private boolean hasMethod = false;
+  private boolean inParams = false;
+  private ByteArrayOutputStream capture = null;
+  private final ByteArrayOutputStream method = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream uri = new ByteArrayOutputStream();
+
+  private int idState = ID_NONE;
+  private long idStart = -1;
+  private long idEnd = -1;
+  private final ByteArrayOutputStream id = new ByteArrayOutputStream();
+
+  /**
+   * Scans the next bytes of the message.
+   */
+  public void feed(byte[] bytes, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      feed(bytes[i]);
+    }
+  }
+
+  /**
+   * Scans the next byte of the message.
+   */
+  public void feed(byte value) {
+    long current = position++;
+    if (idState == ID_LITERAL) {
+      if (value != ',' && value != '}' && !isWhitespace(value)) {
+        appendId(value);
+        return;
+      }
+      idEnd = current;
+      idState = ID_DONE;
+    }
+    if (inString) {
+      feedString(value, current);
+      return;
+    }
+    if (isWhitespace(value)) {
+      return;
+    }
+    if (valueExpected) {
+      valueExpected = false;
+      if (depth == 1 && "id".equals(currentKey) && idState == ID_NONE) {
+        idStart = current;
+        appendId(value);
+        idState = (value == '"') ? ID_STRING : ID_LITERAL;
+        inString = value == '"';
+        return;
+      }
+      if (depth == 1) {
+        hasMethod |= "method".equals(currentKey);
+        inParams = "params".equals(currentKey) && value == '{';
+        startCapture(value, "method".equals(currentKey), method);
+      } else {
+        startCapture(value, "uri".equals(currentKey), uri);
+      }
+    }
+    switch (value) {
+      case '"':
+        inString = true;
+        readingKey = keyExpected;
+        keyExpected = false;
+        key.setLength(0);
+        break;
+      case '{':
+      case '[':
+        depth++;
+        keyExpected = isKeyDepth() && value == '{';
+        break;
+      case '}':
+      case ']':
+        depth--;
+        inParams &= depth > 1;
+        break;
+      case ',':
+        keyExpected = isKeyDepth();
+        break;
+      case ':':
+        valueExpected = isKeyDepth();
+        currentKey = key.toString();
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Whether the keys of the current object are tracked: the ones of the
+   * message and the ones of its params.
+   */
+  private boolean isKeyDepth() {
+    return depth == 1 || (depth == 2 && inParams);
+  }
+
+  private void startCapture(byte value, boolean wanted, ByteArrayOutputStream target) {
+    if (wanted && value == '"' && target.size() == 0) {
+      capture = target;
+      capture.write(value);
+    }
+  }
+
+  private void feedString(byte value, long current) {
+    if (escape) {
+      escape = false;
+    } else if (value == '\\') {
+      escape = true;
+    } else if (value == '"') {
+      inString = false;
+      readingKey = false;
+      if (idState == ID_STRING) {
+        appendId(value);
+        idEnd = current + 1;
+        idState = ID_DONE;
+      } else if (capture != null) {
+        appendCapture(value);
+        capture = null;
+      }
+      return;
+    }
+    if (readingKey && key.length() < MAX_KEY_LENGTH) {
+      key.append((char) value);
+    } else if (idState == ID_STRING) {
+      appendId(value);
+    } else if (capture != null) {
+      appendCapture(value);
+    }
+  }
+
+  private void appendCapture(byte value) {
+    if (capture.size() <= MAX_VALUE_LENGTH) {
+      capture.write(value);
+    }
+  }
+
+  private void appendId(byte value) {
+    if (id.size() < MAX_ID_LENGTH) {
+      id.write(value);
+    }
+  }
+
+  private static boolean isWhitespace(byte value) {
+    return value == ' ' || value == '\t' || value == '\r' || value == '\n';
+  }
+
+  /**
+   * Gets the id of the message as JSON text.
+   * @return the id, or null if the message has no id
+   */
+  public String getId() {
+    return (idState == ID_DONE) ? id.toString(StandardCharsets.UTF_8) : null;
+  }
+
+  /**
+   * Gets the position of the first byte of the id.
+   * @return the position in the message, or -1 if the message has no id
+   */
+  public long getIdStart() {
+    return (idState == ID_DONE) ? idStart : -1;
+  }
+
+  /**
+   * Gets the position of the byte after the id.
+   * @return the position in the message, or -1 if the message has no id
+   */
+  public long getIdEnd() {
+    return (idState == ID_DONE) ? idEnd : -1;
+  }
+
+  public boolean hasMethod() {
+    return hasMethod;
+  }
+
+  /**
+   * Gets the method of the message as JSON text.
+   * @return the method, or null if the message has no method or it is not a
+   *         string
+   */
+  public String getMethod() {
+    return getCaptured(method);
+  }
+
+  /**
+   * Gets the {@code params.uri} of the message as JSON text, like the one of
+   * the diagnostics notifications.
+   * @return the uri, or null if the message has no uri or it is too long
+   */
+  public String getUri() {
+    return getCaptured(uri);
+  }
+
+  private String getCaptured(ByteArrayOutputStream value) {
+    if (value == capture || value.size() < 2 || value.size() > MAX_VALUE_LENGTH) {
+      // Not finished or truncated
+      return null;
+    }
+    return value.toString(StandardCharsets.UTF_8);
+  }
+
+}
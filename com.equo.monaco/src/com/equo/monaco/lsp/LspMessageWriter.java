@@ -0,0 +1,228 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
+
+/**
+ * Writes messages to a language server using the framing of the LSP base
+ * protocol. Messages are queued in a bounded queue and written in order by a
+ * single thread, which batches every queued message in one buffered write and
+ * flushes once per batch.
+ *
+ * <p>Messages are never dropped while the writer works, because a missing
+ * {@code didChange} would leave the documents of the server out of sync. A send
+ * never waits, since the thread sending is shared by every proxy. If the queue
+ * is full, or the stream fails, the writer fails instead: the queued messages
+ * are discarded, every send is rejected immediately and the failure handler is
+ * called, so the owner can connect a new server and restore its state.
+ */
+public class LspMessageWriter implements LspServerChannel {
+  private static Logger logger = LoggerFactory.getLogger(LspMessageWriter.class);
+  private static final String CONTENT_LENGTH = "Content-Length: ";
+  private static final String HEADER_END = "\r\n\r\n";
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final long JOIN_TIMEOUT = 1000;
+
+  /**
+   * Default capacity of the queue. Can be changed with the
+   * {@code equo.monaco.lsp.writeQueueCapacity} system property.
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY =
+      Integer.getInteger("equo.monaco.lsp.writeQueueCapacity", 1024);
+
+  private final BlockingQueue<String> queue;
+  private final OutputStream streamOut;
+  private final Thread writerThread;
+  private volatile boolean finish = false;
+  private final AtomicBoolean failed = new AtomicBoolean(false);
+  private volatile Runnable failureHandler = null;
+
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicLong writtenMessages = new AtomicLong();
+  private final AtomicLong writtenBatches = new AtomicLong();
+  private final AtomicLong rejectedMessages = new AtomicLong();
+
+  public LspMessageWriter(OutputStream streamOut) {
+    this(streamOut, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param streamOut     the stream where the language server reads its
+   *                      messages
+   * @param queueCapacity maximum amount of messages waiting to be written,
+   *                      the writer fails when it is exceeded
+   */
+  public LspMessageWriter(OutputStream streamOut, int queueCapacity) {
+    this.streamOut = new BufferedOutputStream(streamOut, WRITE_BUFFER_SIZE);
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    writerThread = new Thread(this::drainLoop, "Equo Editor -> Lsp");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Queues a message to be written to the language server, without waiting.
+   * @param  message the message payload
+   * @return         false if the message was rejected because the writer
+   *                 failed, was stopped or its queue was full
+   */
+  @Override
+  public boolean send(String message) {
+    if (finish || failed.get()) {
+      rejectedMessages.incrementAndGet();
+      return false;
+    }
+    if (!queue.offer(message)) {
+      rejectedMessages.incrementAndGet();
+      fail(new IOException("The language server is not reading its messages"));
+      return false;
+    }
+    if (failed.get()) {
+      // The writer failed while the message was queued
+      rejectedMessages.incrementAndGet();
+      return false;
+    }
+    maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    return true;
+  }
+
+  private void drainLoop() {
+    List<String> batch = new ArrayList<>();
+    try {
+      while (!finish) {
+        batch.add(queue.take());
+        queue.drainTo(batch);
+        for (String message : batch) {
+          write(message);
+        }
+        streamOut.flush();
+        writtenMessages.addAndGet(batch.size());
+        writtenBatches.incrementAndGet();
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      if (!finish) {
+        fail(e);
+      }
+    }
+  }
+
+  private void fail(IOException cause) {
+    if (finish || !failed.compareAndSet(false, true)) {
+      return;
+    }
+    logger.warn("Error writing to the language server: " + cause.getMessage());
+    queue.clear();
+    Runnable handler = failureHandler;
+    if (handler != null) {
+      handler.run();
+    }
+  }
+
+  @Override
+  public void setFailureHandler(Runnable handler) {
+    failureHandler = handler;
+    if (handler != null && failed.get()) {
+      handler.run();
+    }
+  }
+
+  /**
+   * Whether the writer failed, see {@link #setFailureHandler(Runnable)}.
+   */
+  public boolean hasFailed() {
+    return failed.get();
+  }
+
+  private void write(String message) throws IOException {
+    byte[] content = message.getBytes(StandardCharsets.UTF_8);
+    String header = CONTENT_LENGTH + content.length + HEADER_END;
+    streamOut.write(header.getBytes(StandardCharsets.US_ASCII));
+    streamOut.write(content);
+  }
+
+  /**
+   * Stops the writer thread. Messages still in the queue are discarded.
+   */
+  public void stop() {
+    finish = true;
+    writerThread.interrupt();
+  }
+
+  /**
+   * Stops the writer thread and waits a bounded time for it to finish.
+   */
+  @Override
+  public void close() {
+    stop();
+    if (writerThread != Thread.currentThread()) {
+      try {
+        writerThread.join(JOIN_TIMEOUT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (writerThread.isAlive()) {
+        logger.error("The thread writing to the language server didn't finish in "
+            + JOIN_TIMEOUT + "ms after the writer was closed");
+      }
+    }
+  }
+
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  public long getWrittenMessages() {
+    return writtenMessages.get();
+  }
+
+  public long getWrittenBatches() {
+    return writtenBatches.get();
+  }
+
+  public long getRejectedMessages() {
+    return rejectedMessages.get();
+  }
+
+}
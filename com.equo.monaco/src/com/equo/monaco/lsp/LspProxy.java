@@ -25,68 +25,233 @@ package com.equo.monaco.lsp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A Lsp Proxy will communicate the editor with some language server.
  */
 public abstract class LspProxy {
-  private int proxyPort;
-  private ServerSocket socketPortReserve;
-  protected LspWsProxy proxy;
+  private static final ExecutorService STARTER = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "Lsp server starter");
+    thread.setDaemon(true);
+    return thread;
+  });
 
-  public LspProxy() {
-    proxyPort = reservePortForProxy(0);
-  }
+  private final Object proxyLock = new Object();
+  private String proxyId;
+  private CompletableFuture<Void> startFuture = null;
+  private volatile LspServerChannel serverChannel = null;
+  protected volatile LspWsProxy proxy;
 
+  /**
+   * Starts the language server and connects the proxy to it. Blocks until the
+   * server is started.
+   */
   public abstract void startServer();
 
+  /**
+   * Starts the language server in background. The editors can connect to the
+   * proxy meanwhile, and their messages are sent once the server is ready.
+   * @return a future completed when the server is ready, or completed
+   *         exceptionally if it could not be started, in which case the next
+   *         call tries again
+   */
+  public CompletableFuture<Void> startServerAsync() {
+    synchronized (proxyLock) {
+      if (startFuture == null) {
+        getWsProxy();
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+          startServer();
+          if (!isConnected()) {
+            throw new CompletionException(
+                new IOException("The language server could not be started"));
+          }
+        }, STARTER);
+        startFuture = future;
+        future.whenComplete((result, error) -> {
+          if (error != null) {
+            synchronized (proxyLock) {
+              if (startFuture == future) {
+                startFuture = null;
+              }
+            }
+          }
+        });
+        return future;
+      }
+      return startFuture;
+    }
+  }
+
+  /**
+   * Stops the proxy and the language server in background, so the caller is
+   * not blocked while the server shuts down.
+   * @return a future completed when the server is stopped
+   */
+  public CompletableFuture<Void> stopServerAsync() {
+    return CompletableFuture.runAsync(this::stopServer, STARTER);
+  }
+
   /**
    * Stops the proxy.
    */
   public void stopServer() {
-    if (proxy != null) {
-      try {
-        proxy.stop();
-      } catch (IOException | InterruptedException e) {
-        e.printStackTrace();
-      }
+    LspWsProxy stopped;
+    synchronized (proxyLock) {
+      stopped = proxy;
+      proxy = null;
+      startFuture = null;
+    }
+    if (stopped != null) {
+      LspWsEndpoint.getInstance().unregister(getProxyId(), stopped);
+      stopped.stop();
     }
   }
 
   protected void startProxy(InputStream streamIn, OutputStream streamOut) {
-    closeSocketPortReserve();
-    proxy = new LspWsProxy(getPort(), streamIn, streamOut);
-    proxy.start();
+    LspMessageWriter writer = new LspMessageWriter(streamOut);
+    serverChannel = writer;
+    getWsProxy().connect(streamIn, writer);
   }
 
-  public int getPort() {
-    return proxyPort;
+  /**
+   * Connects the proxy to a language server reached through a blocking byte
+   * channel, like a socket. The channel is read and written by different
+   * threads.
+   * @param channel the channel connected to the server
+   */
+  protected void startProxy(ByteChannel channel) {
+    LspMessageWriter writer = new LspMessageWriter(Channels.newOutputStream(channel));
+    serverChannel = writer;
+    getWsProxy().connect(channel, writer);
+  }
+
+  /**
+   * Connects the proxy to a language server reached through a channel instead
+   * of its streams. The server messages must be given to
+   * {@link #handleServerMessage(String)}.
+   * @param channel the channel used to send the editor messages to the server
+   */
+  protected void startProxy(LspServerChannel channel) {
+    serverChannel = channel;
+    getWsProxy().connect(channel);
   }
 
-  protected void closeSocketPortReserve() {
-    try {
-      socketPortReserve.close();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Sends a message of the language server to the editors.
+   */
+  protected void handleServerMessage(String message) {
+    LspWsProxy current = proxy;
+    if (current != null) {
+      current.handleServerMessage(message);
+    }
+  }
+
+  /**
+   * Gets the proxy where the editors connect, registering it in the endpoint if
+   * needed. The proxy accepts editors before the server is started.
+   * @return the websocket proxy
+   */
+  protected LspWsProxy getWsProxy() {
+    synchronized (proxyLock) {
+      if (proxy == null) {
+        proxy = new LspWsProxy();
+        proxy.setServerLostHandler(this::serverLost);
+        LspWsEndpoint.getInstance().register(getProxyId(), proxy);
+      }
+      return proxy;
     }
   }
 
   /**
-   * Reserves a port to be used later by the ws proxy. It mantains a socket listen
-   * on that port until the proxy is started
-   * @param  port The port to be reserved. Use 0 to reserve a random port
-   * @return      the port reserved
+   * Called when the connection with the language server fails. The proxy is
+   * already disconnected, and keeps the editor messages until it is connected
+   * to a new server. By default nothing else is done.
+   *
+   * <p>It is called from the thread that reads the server messages, so it must
+   * not block. The lost channel may belong to a server already replaced, see
+   * {@link #isServerChannel(LspServerChannel)}.
+   * @param lost the channel of the lost server
    */
-  protected int reservePortForProxy(int port) {
-    try {
-      socketPortReserve = new ServerSocket(port);
-      socketPortReserve.setReuseAddress(true);
-      return socketPortReserve.getLocalPort();
-    } catch (IOException e) {
-      e.printStackTrace();
+  protected void serverLost(LspServerChannel lost) {
+  }
+
+  /**
+   * Whether the given channel is the one of the last server connected.
+   */
+  protected boolean isServerChannel(LspServerChannel channel) {
+    return channel == serverChannel;
+  }
+
+  private boolean isConnected() {
+    LspWsProxy current = proxy;
+    return current != null && current.isConnected();
+  }
+
+  /**
+   * Gets the last time a message passed between the editors and the server.
+   * @return the time in milliseconds since the epoch, or 0 if the proxy was not
+   *         started
+   */
+  public long getLastActivity() {
+    LspWsProxy current = proxy;
+    return (current != null) ? current.getLastActivity() : 0;
+  }
+
+  /**
+   * Gets the amount of editor requests cancelled because they were superseded
+   * by a newer request.
+   * @return the amount of superseded requests, or 0 if the proxy was not
+   *         started
+   */
+  public long getSupersededRequests() {
+    LspWsProxy current = proxy;
+    return (current != null) ? current.getMultiplexer().getSupersededRequests() : 0;
+  }
+
+  /**
+   * Gets the amount of diagnostics notifications not sent to the editors
+   * because a newer one for the same document replaced them.
+   * @return the amount of suppressed notifications, or 0 if the proxy was not
+   *         started
+   */
+  public long getSuppressedDiagnostics() {
+    LspWsProxy current = proxy;
+    return (current != null) ? current.getMultiplexer().getSuppressedDiagnostics() : 0;
+  }
+
+  /**
+   * Gets the port where the editors connect to the proxy. All the proxies share
+   * the port of the {@link LspWsEndpoint}.
+   * @return the proxy port
+   */
+  public int getPort() {
+    return LspWsEndpoint.getInstance().getPort();
+  }
+
+  private String getProxyId() {
+    synchronized (proxyLock) {
+      if (proxyId == null) {
+        proxyId = LspWsEndpoint.getInstance().newProxyId();
+      }
+      return proxyId;
     }
-    return (int) (Math.random() * 10000 + 40000);
+  }
+
+  /**
+   * Gets the url that an editor uses to connect to the proxy.
+   * @param  clientId an id that identifies the editor, kept when it reconnects
+   * @return          the websocket url of the proxy
+   */
+  public String getUrl(String clientId) {
+    getWsProxy();
+    return "ws://127.0.0.1:" + getPort() + LspWsEndpoint.getPath(getProxyId()) + "?"
+        + LspWsProxy.CLIENT_PARAMETER + "=" + clientId;
   }
 
 }
@@ -0,0 +1,110 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+/**
+ * Resource thresholds of a language server, checked by the
+ * {@link LspServerWatchdog}, and what to do when they are exceeded.
+ */
+public class LspResourceLimits {
+
+  /**
+   * What the watchdog does with a server that exceeds its limits.
+   */
+  public enum Policy {
+    /**
+     * The server is restarted, and the open documents are sent to the new one.
+     */
+    RESTART,
+    /**
+     * Completion, hover and signature help requests are answered as cancelled
+     * without reaching the server, until it is back under its limits.
+     */
+    THROTTLE
+  }
+
+  /**
+   * Limits used for the servers without specific limits. Can be changed with
+   * the {@code equo.monaco.lsp.maxServerMemory} (megabytes),
+   * {@code equo.monaco.lsp.maxServerCpu} (percentage of one core) and
+   * {@code equo.monaco.lsp.watchdogPolicy} ({@code restart} or
+   * {@code throttle}) system properties. By default there are no limits.
+   */
+  public static final LspResourceLimits DEFAULT = new LspResourceLimits(
+      Long.getLong("equo.monaco.lsp.maxServerMemory", 0) * 1024 * 1024,
+      Integer.getInteger("equo.monaco.lsp.maxServerCpu", 0) / 100.0,
+      "throttle".equalsIgnoreCase(System.getProperty("equo.monaco.lsp.watchdogPolicy"))
+          ? Policy.THROTTLE
+          : Policy.RESTART);
+
+  private static final int DEFAULT_SAMPLES = 3;
+
+  private final long maxMemory;
+  private final double maxCpuLoad;
+  private final Policy policy;
+  private final int samples;
+
+  public LspResourceLimits(long maxMemory, double maxCpuLoad, Policy policy) {
+    this(maxMemory, maxCpuLoad, policy, DEFAULT_SAMPLES);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param maxMemory  maximum bytes of resident memory, or 0 for no limit
+   * @param maxCpuLoad maximum amount of cores used, or 0 for no limit
+   * @param policy     what to do when a limit is exceeded
+   * @param samples    amount of consecutive samples above a limit needed to
+   *                   apply the policy, so short peaks are tolerated
+   */
+  public LspResourceLimits(long maxMemory, double maxCpuLoad, Policy policy, int samples) {
+    this.maxMemory = maxMemory;
+    this.maxCpuLoad = maxCpuLoad;
+    this.policy = policy;
+    this.samples = Math.max(1, samples);
+  }
+
+  /**
+   * Checks whether a sample exceeds these limits.
+   */
+  public boolean isExceededBy(LspResourceSample sample) {
+    return (maxMemory > 0 && sample.getResidentMemory() > maxMemory)
+        || (maxCpuLoad > 0 && sample.getCpuLoad() > maxCpuLoad);
+  }
+
+  public long getMaxMemory() {
+    return maxMemory;
+  }
+
+  public double getMaxCpuLoad() {
+    return maxCpuLoad;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public int getSamples() {
+    return samples;
+  }
+
+}
@@ -0,0 +1,82 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+/**
+ * Resources used by the process tree of a language server, sampled by the
+ * {@link LspServerWatchdog}.
+ */
+public class LspResourceSample {
+  private final long time;
+  private final long residentMemory;
+  private final double cpuLoad;
+  private final int processes;
+
+  /**
+   * Parameterized constructor.
+   * @param time           when the sample was taken, in milliseconds since the
+   *                       epoch
+   * @param residentMemory bytes of resident memory, or -1 if unknown
+   * @param cpuLoad        cores used since the previous sample. Example: 1.5
+   *                       for one core and a half
+   * @param processes      amount of processes in the tree
+   */
+  public LspResourceSample(long time, long residentMemory, double cpuLoad, int processes) {
+    this.time = time;
+    this.residentMemory = residentMemory;
+    this.cpuLoad = cpuLoad;
+    this.processes = processes;
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Gets the resident memory of the whole process tree. It is only known on
+   * systems with {@code /proc}.
+   * @return the amount of bytes, or -1 if unknown
+   */
+  public long getResidentMemory() {
+    return residentMemory;
+  }
+
+  /**
+   * Gets the cpu used by the whole process tree since the previous sample.
+   * @return the amount of cores used. Example: 1.5 for one core and a half
+   */
+  public double getCpuLoad() {
+    return cpuLoad;
+  }
+
+  public int getProcesses() {
+    return processes;
+  }
+
+  @Override
+  public String toString() {
+    return "LspResourceSample [time=" + time + ", residentMemory=" + residentMemory
+        + ", cpuLoad=" + cpuLoad + ", processes=" + processes + "]";
+  }
+
+}
@@ -0,0 +1,167 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of the results of idempotent language server requests. Results are
+ * keyed by the method, the document uri and version, and the request params,
+ * so a new version of a document never hits an older result. The cache is
+ * bounded by the amount of characters of the stored results and params,
+ * evicting the least recently used ones.
+ */
+public class LspResponseCache {
+
+  /**
+   * Default maximum amount of characters of the cached results. Can be changed
+   * with the {@code equo.monaco.lsp.responseCacheChars} system property.
+   */
+  public static final long DEFAULT_MAX_CHARS =
+      Long.getLong("equo.monaco.lsp.responseCacheChars", 4 * 1024 * 1024);
+
+  private final long maxChars;
+  private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long chars = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  public LspResponseCache() {
+    this(DEFAULT_MAX_CHARS);
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param maxChars maximum amount of characters of the cached results
+   */
+  public LspResponseCache(long maxChars) {
+    this.maxChars = maxChars;
+  }
+
+  /**
+   * Gets a cached result.
+   * @return the result serialized as JSON, or null if it is not cached
+   */
+  public synchronized String get(String method, String uri, int version, String params) {
+    String result = entries.get(new Key(method, uri, version, params));
+    if (result == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return result;
+  }
+
+  /**
+   * Caches a result. Results bigger than the whole cache are not stored.
+   * @param result the result serialized as JSON
+   */
+  public synchronized void put(String method, String uri, int version, String params,
+      String result) {
+    long resultChars = result.length() + params.length();
+    if (resultChars > maxChars) {
+      return;
+    }
+    String previous = entries.put(new Key(method, uri, version, params), result);
+    chars += resultChars;
+    if (previous != null) {
+      chars -= previous.length() + params.length();
+    }
+    Iterator<Map.Entry<Key, String>> iterator = entries.entrySet().iterator();
+    while (chars > maxChars && iterator.hasNext()) {
+      Map.Entry<Key, String> eldest = iterator.next();
+      chars -= eldest.getValue().length() + eldest.getKey().params.length();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Removes every result of a document.
+   */
+  public synchronized void invalidate(String uri) {
+    Iterator<Map.Entry<Key, String>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, String> entry = iterator.next();
+      if (entry.getKey().uri.equals(uri)) {
+        chars -= entry.getValue().length() + entry.getKey().params.length();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Removes every cached result.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    chars = 0;
+  }
+
+  public synchronized long getChars() {
+    return chars;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private static class Key {
+    private final String method;
+    private final String uri;
+    private final int version;
+    private final String params;
+
+    private Key(String method, String uri, int version, String params) {
+      this.method = method;
+      this.uri = uri;
+      this.version = version;
+      this.params = params;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return version == other.version && method.equals(other.method) && uri.equals(other.uri)
+          && params.equals(other.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(method, uri, version, params);
+    }
+  }
+
+}
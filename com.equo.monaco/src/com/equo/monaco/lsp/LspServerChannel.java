@@ -0,0 +1,52 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+/**
+ * Channel used by a proxy to send the editor messages to a language server.
+ */
+public interface LspServerChannel {
+
+  /**
+   * Sends a JSON-RPC message to the language server.
+   * @param  message the message payload
+   * @return         false if the channel failed or was closed, so the message
+   *                 was not sent
+   */
+  boolean send(String message);
+
+  /**
+   * Sets the handler called when the channel fails and can't send more
+   * messages, for example because the connection with the server was lost.
+   * @param handler the handler. It is called right away if the channel
+   *                already failed
+   */
+  default void setFailureHandler(Runnable handler) {
+  }
+
+  /**
+   * Closes the channel. The next messages are discarded.
+   */
+  void close();
+
+}
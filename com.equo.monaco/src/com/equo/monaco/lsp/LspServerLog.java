@@ -0,0 +1,191 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
+
+/**
+ * Drains the error stream of a language server, so the server never blocks
+ * writing to a full pipe. The last bytes written are kept in a ring buffer of
+ * fixed size, and the lines can be mirrored to the log at a limited rate.
+ */
+public class LspServerLog {
+  private static Logger logger = LoggerFactory.getLogger(LspServerLog.class);
+  private static final int READ_BUFFER_SIZE = 4096;
+  private static final int MAX_LINE_LENGTH = 1000;
+  private static final long RATE_WINDOW = 1000;
+
+  /**
+   * Default amount of bytes kept for each server. Can be changed with the
+   * {@code equo.monaco.lsp.serverLogSize} system property.
+   */
+  public static final int DEFAULT_CAPACITY =
+      Integer.getInteger("equo.monaco.lsp.serverLogSize", 64 * 1024);
+
+  /**
+   * Whether the server lines are mirrored to the log by default. Can be changed
+   * with the {@code equo.monaco.lsp.mirrorServerLog} system property.
+   */
+  public static final boolean DEFAULT_MIRROR =
+      Boolean.getBoolean("equo.monaco.lsp.mirrorServerLog");
+
+  /**
+   * Maximum amount of lines per second mirrored to the log. Can be changed with
+   * the {@code equo.monaco.lsp.serverLogRate} system property.
+   */
+  public static final int DEFAULT_MIRROR_RATE =
+      Integer.getInteger("equo.monaco.lsp.serverLogRate", 20);
+
+  private final String name;
+  private final byte[] buffer;
+  private final boolean mirror;
+  private final int mirrorRate;
+  private final Thread pumpThread;
+  private long written = 0;
+
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+  private long windowStart = 0;
+  private int windowLines = 0;
+  private long suppressedLines = 0;
+
+  public LspServerLog(String name, InputStream streamErr) {
+    this(name, streamErr, DEFAULT_CAPACITY, DEFAULT_MIRROR, DEFAULT_MIRROR_RATE);
+  }
+
+  /**
+   * Parameterized constructor. The stream starts being drained immediately.
+   * @param name       name of the server, used in the mirrored lines
+   * @param streamErr  the error stream of the server
+   * @param capacity   amount of bytes kept
+   * @param mirror     whether the lines are mirrored to the log
+   * @param mirrorRate maximum amount of lines per second mirrored to the log
+   */
+  public LspServerLog(String name, InputStream streamErr, int capacity, boolean mirror,
+      int mirrorRate) {
+    this.name = name;
+    this.buffer = new byte[capacity];
+    this.mirror = mirror;
+    this.mirrorRate = mirrorRate;
+    pumpThread = new Thread(() -> pump(streamErr), "Lsp stderr " + name);
+    pumpThread.setDaemon(true);
+    pumpThread.start();
+  }
+
+  private void pump(InputStream streamErr) {
+    byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    try {
+      int read;
+      while ((read = streamErr.read(readBuffer)) != -1) {
+        append(readBuffer, read);
+        if (mirror) {
+          mirror(readBuffer, read);
+        }
+      }
+    } catch (IOException e) {
+      // The stream is closed when the server finishes
+    }
+  }
+
+  private synchronized void append(byte[] bytes, int length) {
+    // Only the bytes that fit in the buffer are copied
+    int offset = Math.max(0, length - buffer.length);
+    written += offset;
+    for (int i = offset; i < length; i++) {
+      buffer[(int) (written++ % buffer.length)] = bytes[i];
+    }
+  }
+
+  private void mirror(byte[] bytes, int length) {
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] == '\n') {
+        mirrorLine(line.toString(StandardCharsets.UTF_8).trim());
+        line.reset();
+      } else if (line.size() < MAX_LINE_LENGTH) {
+        line.write(bytes[i]);
+      }
+    }
+  }
+
+  private void mirrorLine(String text) {
+    long now = System.currentTimeMillis();
+    if (now - windowStart >= RATE_WINDOW) {
+      if (suppressedLines > 0) {
+        logger.info("[" + name + "] " + suppressedLines + " lines not logged");
+      }
+      windowStart = now;
+      windowLines = 0;
+      suppressedLines = 0;
+    }
+    if (windowLines < mirrorRate) {
+      windowLines++;
+      logger.info("[" + name + "] " + text);
+    } else {
+      suppressedLines++;
+    }
+  }
+
+  /**
+   * Waits the error stream to be closed, which happens once the server
+   * process finishes.
+   * @param  timeout maximum milliseconds to wait
+   * @return         true if the stream was closed
+   */
+  public boolean join(long timeout) {
+    try {
+      pumpThread.join(timeout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return !pumpThread.isAlive();
+  }
+
+  /**
+   * Gets the last output of the server kept in the buffer.
+   * @return the output, starting with the oldest kept byte
+   */
+  public synchronized String getContents() {
+    int size = (int) Math.min(written, buffer.length);
+    byte[] contents = new byte[size];
+    int start = (int) ((written - size) % buffer.length);
+    int firstPart = Math.min(size, buffer.length - start);
+    System.arraycopy(buffer, start, contents, 0, firstPart);
+    System.arraycopy(buffer, 0, contents, firstPart, size - firstPart);
+    return new String(contents, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Gets the amount of bytes written by the server, including the ones that
+   * are no longer in the buffer.
+   * @return the amount of bytes written
+   */
+  public synchronized long getWrittenBytes() {
+    return written;
+  }
+
+}
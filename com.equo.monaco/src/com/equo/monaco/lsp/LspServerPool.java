@@ -0,0 +1,445 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
+
+/**
+ * Keeps one language server process for each pair of execution parameters and
+ * root path, shared by all the editors that use it. Servers without attached
+ * editors are stopped after an idle timeout, and the amount of live servers
+ * started with the same execution parameters is limited by evicting the least
+ * recently used one without editors. Optionally, some servers can be started in advance so the
+ * next editor that needs one doesn't wait for the process start.
+ */
+public class LspServerPool {
+  private static Logger logger = LoggerFactory.getLogger(LspServerPool.class);
+
+  /**
+   * Default maximum of live servers per language. Can be changed with the
+   * {@code equo.monaco.lsp.maxServersPerLanguage} system property.
+   */
+  public static final int DEFAULT_MAX_SERVERS_PER_LANGUAGE =
+      Integer.getInteger("equo.monaco.lsp.maxServersPerLanguage", 4);
+
+  /**
+   * Default milliseconds that a server without editors is kept alive. Can be
+   * changed with the {@code equo.monaco.lsp.idleTimeout} system property.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT =
+      Long.getLong("equo.monaco.lsp.idleTimeout", 120000);
+
+  private static Map<ServerKey, PooledServer> servers = new HashMap<>();
+  private static Map<List<String>, Deque<CommonLspProxy>> warmServers = new HashMap<>();
+  private static Map<List<String>, Integer> warmServersCount = new HashMap<>();
+  private static int maxServersPerLanguage = DEFAULT_MAX_SERVERS_PER_LANGUAGE;
+  private static long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private static ScheduledExecutorService scheduler = null;
+
+  private LspServerPool() {
+  }
+
+  /**
+   * Sets the maximum amount of live servers started with the same execution
+   * parameters. When a new one is needed and the limit was reached, the least
+   * recently used server without editors is stopped. The servers with editors
+   * are never stopped, so the limit is exceeded while all of them have editors.
+   * @param max the maximum amount of servers, or 0 for no limit
+   */
+  public static synchronized void setMaxServersPerLanguage(int max) {
+    maxServersPerLanguage = max;
+  }
+
+  /**
+   * Sets the time that a server without attached editors is kept alive, to be
+   * reused if an editor needs it again.
+   * @param millis the timeout in milliseconds. Use 0 to stop the servers as
+   *               soon as their last editor is released
+   */
+  public static synchronized void setIdleTimeout(long millis) {
+    idleTimeout = millis;
+  }
+
+  /**
+   * Sets the amount of servers started in background with the given execution
+   * parameters, waiting to be used by the next editors. Each time one of them is
+   * taken by an editor, a new one is started to replace it. The initialize
+   * handshake is done by the editor that takes the server, because it depends
+   * on its root path and capabilities.
+   * @param executionParameters the parameters needed to start the lsp server
+   *                            through stdio
+   * @param count               the amount of warm servers. Use 0 to stop the
+   *                            existing ones
+   */
+  public static void setWarmServers(List<String> executionParameters, int count) {
+    List<String> parameters = new ArrayList<>(executionParameters);
+    List<CommonLspProxy> toStop = new ArrayList<>();
+    synchronized (LspServerPool.class) {
+      if (count > 0) {
+        warmServersCount.put(parameters, count);
+      } else {
+        warmServersCount.remove(parameters);
+      }
+      Deque<CommonLspProxy> spares = warmServers.computeIfAbsent(parameters,
+          p -> new ArrayDeque<>());
+      while (spares.size() > count) {
+        toStop.add(spares.pollLast());
+      }
+      if (spares.isEmpty()) {
+        warmServers.remove(parameters);
+      }
+      replenishWarmServers(parameters);
+    }
+    for (CommonLspProxy proxy : toStop) {
+      proxy.stopServer();
+    }
+  }
+
+  private static void replenishWarmServers(List<String> executionParameters) {
+    int count = warmServersCount.getOrDefault(executionParameters, 0);
+    if (count <= 0) {
+      return;
+    }
+    Deque<CommonLspProxy> spares = warmServers.computeIfAbsent(executionParameters,
+        p -> new ArrayDeque<>());
+    while (spares.size() < count) {
+      CommonLspProxy proxy = new CommonLspProxy(executionParameters);
+      spares.add(proxy);
+      proxy.startServerAsync();
+    }
+  }
+
+  private static CommonLspProxy takeWarmServer(List<String> executionParameters) {
+    Deque<CommonLspProxy> spares = warmServers.get(executionParameters);
+    CommonLspProxy proxy = null;
+    while (spares != null && !spares.isEmpty() && proxy == null) {
+      CommonLspProxy candidate = spares.poll();
+      // A server that is still starting is fine, but one that died is not
+      if (candidate.isRunning() || !candidate.hasStarted()) {
+        proxy = candidate;
+      }
+    }
+    replenishWarmServers(executionParameters);
+    return proxy;
+  }
+
+  /**
+   * Gets a proxy to the language server started with the given parameters for
+   * the given root path. Stopping the returned proxy releases it, and the
+   * server is stopped once it stays without editors for the idle timeout.
+   * @param  executionParameters the parameters needed to start the lsp server
+   *                             through stdio
+   * @param  rootPath            the root path of the editor workspace. Can be
+   *                             null
+   * @return                     a proxy for the shared language server
+   */
+  public static LspProxy acquire(List<String> executionParameters, String rootPath) {
+    ServerKey key = new ServerKey(executionParameters, rootPath);
+    PooledServer evicted = null;
+    PooledServer server;
+    synchronized (LspServerPool.class) {
+      server = servers.get(key);
+      if (server == null) {
+        evicted = evictIfFull(key);
+        CommonLspProxy proxy = takeWarmServer(key.executionParameters);
+        if (proxy == null) {
+          proxy = new CommonLspProxy(executionParameters);
+        }
+        server = new PooledServer(proxy);
+        servers.put(key, server);
+      }
+      server.references++;
+      server.lastUsed = System.currentTimeMillis();
+      server.cancelIdleTask();
+    }
+    if (evicted != null) {
+      evicted.proxy.stopServer();
+    }
+    return new PooledLspProxy(key, server);
+  }
+
+  private static PooledServer evictIfFull(ServerKey newKey) {
+    if (maxServersPerLanguage <= 0) {
+      return null;
+    }
+    ServerKey victim = null;
+    PooledServer victimServer = null;
+    int count = 0;
+    for (Map.Entry<ServerKey, PooledServer> entry : servers.entrySet()) {
+      if (!entry.getKey().executionParameters.equals(newKey.executionParameters)) {
+        continue;
+      }
+      count++;
+      PooledServer candidate = entry.getValue();
+      if (candidate.references > 0) {
+        // Its editors would lose the server
+        continue;
+      }
+      if (victimServer == null || candidate.getLastActivity() < victimServer.getLastActivity()) {
+        victim = entry.getKey();
+        victimServer = candidate;
+      }
+    }
+    if (count < maxServersPerLanguage) {
+      return null;
+    }
+    if (victim == null) {
+      logger.warn("Limit of language servers reached, but all of them have attached editors: "
+          + "starting one more for " + newKey.rootPath);
+      return null;
+    }
+    servers.remove(victim);
+    victimServer.cancelIdleTask();
+    return victimServer;
+  }
+
+  /**
+   * Releases a reference to the server. The server must still be the one pooled
+   * for the key, otherwise it was evicted or stopped and a new server taking
+   * its place must keep its references.
+   */
+  private static void release(ServerKey key, PooledServer server) {
+    CommonLspProxy toStop = null;
+    synchronized (LspServerPool.class) {
+      if (servers.get(key) == server && --server.references <= 0) {
+        server.references = 0;
+        server.lastUsed = System.currentTimeMillis();
+        if (idleTimeout <= 0) {
+          servers.remove(key);
+          toStop = server.proxy;
+        } else {
+          scheduleIdleCheck(key, server, idleTimeout);
+        }
+      }
+    }
+    if (toStop != null) {
+      toStop.stopServer();
+    }
+  }
+
+  private static ScheduledExecutorService getScheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Lsp server pool");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return scheduler;
+  }
+
+  private static void scheduleIdleCheck(ServerKey key, PooledServer server, long delay) {
+    server.cancelIdleTask();
+    server.idleTask = getScheduler().schedule(() -> stopIfIdle(key, server), delay,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private static void stopIfIdle(ServerKey key, PooledServer server) {
+    synchronized (LspServerPool.class) {
+      if (servers.get(key) != server || server.references > 0) {
+        return;
+      }
+      long idleTime = System.currentTimeMillis() - server.getLastActivity();
+      if (idleTime < idleTimeout) {
+        scheduleIdleCheck(key, server, idleTimeout - idleTime);
+        return;
+      }
+      servers.remove(key);
+    }
+    server.proxy.stopServer();
+  }
+
+  /**
+   * Gets the state of the servers kept by the pool.
+   * @return a snapshot of every pooled server
+   */
+  public static synchronized List<LspServerState> getState() {
+    List<LspServerState> state = new ArrayList<>();
+    for (Map.Entry<ServerKey, PooledServer> entry : servers.entrySet()) {
+      PooledServer server = entry.getValue();
+      state.add(new LspServerState(entry.getKey().executionParameters, entry.getKey().rootPath,
+          server.references, server.proxy.isRunning(), server.getLastActivity(),
+          server.proxy.getSupersededRequests(), server.proxy.getRestarts(),
+          server.proxy.getResourceSample()));
+    }
+    return state;
+  }
+
+  /**
+   * Stops all the pooled language servers, including the warm ones. The
+   * servers shut down in parallel, and this method returns once all of them
+   * are stopped.
+   */
+  public static void stopAll() {
+    List<PooledServer> toStop;
+    List<CommonLspProxy> sparesToStop = new ArrayList<>();
+    ScheduledExecutorService stoppedScheduler;
+    synchronized (LspServerPool.class) {
+      toStop = new ArrayList<>(servers.values());
+      servers.clear();
+      warmServersCount.clear();
+      for (Deque<CommonLspProxy> spares : warmServers.values()) {
+        sparesToStop.addAll(spares);
+      }
+      warmServers.clear();
+      stoppedScheduler = scheduler;
+      scheduler = null;
+    }
+    List<CompletableFuture<Void>> stops = new ArrayList<>();
+    for (PooledServer server : toStop) {
+      server.cancelIdleTask();
+      stops.add(server.proxy.stopServerAsync());
+    }
+    for (CommonLspProxy proxy : sparesToStop) {
+      stops.add(proxy.stopServerAsync());
+    }
+    CompletableFuture.allOf(stops.toArray(new CompletableFuture<?>[0])).join();
+    if (stoppedScheduler != null) {
+      stoppedScheduler.shutdownNow();
+      try {
+        stoppedScheduler.awaitTermination(CommonLspProxy.SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static class PooledServer {
+    private final CommonLspProxy proxy;
+    private int references = 0;
+    private long lastUsed = System.currentTimeMillis();
+    private ScheduledFuture<?> idleTask = null;
+
+    private PooledServer(CommonLspProxy proxy) {
+      this.proxy = proxy;
+    }
+
+    private long getLastActivity() {
+      return Math.max(lastUsed, proxy.getLastActivity());
+    }
+
+    private void cancelIdleTask() {
+      if (idleTask != null) {
+        idleTask.cancel(false);
+        idleTask = null;
+      }
+    }
+  }
+
+  private static class ServerKey {
+    private final List<String> executionParameters;
+    private final String rootPath;
+
+    private ServerKey(List<String> executionParameters, String rootPath) {
+      this.executionParameters = new ArrayList<>(executionParameters);
+      this.rootPath = rootPath;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ServerKey)) {
+        return false;
+      }
+      ServerKey other = (ServerKey) obj;
+      return executionParameters.equals(other.executionParameters)
+          && Objects.equals(rootPath, other.rootPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(executionParameters, rootPath);
+    }
+  }
+
+  /**
+   * Proxy given to each editor. It shares the server of the pool, and releases
+   * it instead of stopping it.
+   */
+  private static class PooledLspProxy extends LspProxy {
+    private final ServerKey key;
+    private final PooledServer pooled;
+    private final LspProxy server;
+    private boolean released = false;
+
+    private PooledLspProxy(ServerKey key, PooledServer pooled) {
+      this.key = key;
+      this.pooled = pooled;
+      this.server = pooled.proxy;
+    }
+
+    @Override
+    public void startServer() {
+      if (!released) {
+        server.startServer();
+      }
+    }
+
+    @Override
+    public CompletableFuture<Void> startServerAsync() {
+      return released ? CompletableFuture.completedFuture(null) : server.startServerAsync();
+    }
+
+    @Override
+    public synchronized void stopServer() {
+      if (!released) {
+        released = true;
+        release(key, pooled);
+      }
+    }
+
+    @Override
+    public String getUrl(String clientId) {
+      return server.getUrl(clientId);
+    }
+
+    @Override
+    public long getLastActivity() {
+      return server.getLastActivity();
+    }
+
+    @Override
+    public long getSupersededRequests() {
+      return server.getSupersededRequests();
+    }
+
+    @Override
+    public long getSuppressedDiagnostics() {
+      return server.getSuppressedDiagnostics();
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the state of a language server kept by the
+ * {@link LspServerPool}.
+ */
+public class LspServerState {
+  private final List<String> executionParameters;
+  private final String rootPath;
+  private final int attachedEditors;
+  private final boolean running;
+  private final long lastActivity;
+  private final long supersededRequests;
+  private final int restarts;
+  private final LspResourceSample resources;
+
+  /**
+   * Parameterized constructor.
+   */
+  public LspServerState(List<String> executionParameters, String rootPath, int attachedEditors,
+      boolean running, long lastActivity, long supersededRequests, int restarts,
+      LspResourceSample resources) {
+    this.executionParameters = Collections.unmodifiableList(executionParameters);
+    this.rootPath = rootPath;
+    this.attachedEditors = attachedEditors;
+    this.running = running;
+    this.lastActivity = lastActivity;
+    this.supersededRequests = supersededRequests;
+    this.restarts = restarts;
+    this.resources = resources;
+  }
+
+  public List<String> getExecutionParameters() {
+    return executionParameters;
+  }
+
+  public String getRootPath() {
+    return rootPath;
+  }
+
+  public int getAttachedEditors() {
+    return attachedEditors;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Gets the last time the server was used by an editor.
+   * @return the time in milliseconds since the epoch
+   */
+  public long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * Gets the amount of requests that were not answered by the server because a
+   * newer request of the same kind replaced them.
+   * @return the amount of superseded requests
+   */
+  public long getSupersededRequests() {
+    return supersededRequests;
+  }
+
+  /**
+   * Gets the amount of times the server was restarted after a crash.
+   * @return the amount of restarts
+   */
+  public int getRestarts() {
+    return restarts;
+  }
+
+  /**
+   * Gets the last resources used by the server.
+   * @return the last sample of the {@link LspServerWatchdog}, or null if the
+   *         server was not sampled yet
+   */
+  public LspResourceSample getResources() {
+    return resources;
+  }
+
+  @Override
+  public String toString() {
+    return "LspServerState [executionParameters=" + executionParameters + ", rootPath=" + rootPath
+        + ", attachedEditors=" + attachedEditors + ", running=" + running + ", lastActivity="
+        + lastActivity + ", supersededRequests=" + supersededRequests + ", restarts=" + restarts
+        + ", resources=" + resources + "]";
+  }
+
+}
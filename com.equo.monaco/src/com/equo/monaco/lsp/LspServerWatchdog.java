@@ -0,0 +1,214 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
+
+/**
+ * Periodically samples the memory and cpu used by the process tree of every
+ * started language server. A server that stays above its
+ * {@link LspResourceLimits} is restarted or throttled, depending on the policy
+ * of its limits. The limits are set per server program, so each language can
+ * have its own.
+ *
+ * <p>The cpu is sampled with {@link ProcessHandle}, and the resident memory
+ * from {@code /proc}, so memory limits only work on Linux.
+ */
+public class LspServerWatchdog {
+  private static Logger logger = LoggerFactory.getLogger(LspServerWatchdog.class);
+  private static final Path PROC = Paths.get("/proc");
+  private static final String RESIDENT_MEMORY_FIELD = "VmRSS:";
+
+  /**
+   * Milliseconds between samples. Can be changed with the
+   * {@code equo.monaco.lsp.watchdogInterval} system property.
+   */
+  public static final long INTERVAL = Long.getLong("equo.monaco.lsp.watchdogInterval", 5000);
+
+  private static final Map<List<String>, LspResourceLimits> limits = new ConcurrentHashMap<>();
+  private static final Map<CommonLspProxy, WatchedServer> servers = new ConcurrentHashMap<>();
+  private static ScheduledExecutorService scheduler = null;
+  private static ScheduledFuture<?> samplingTask = null;
+
+  private LspServerWatchdog() {
+  }
+
+  /**
+   * Sets the limits of the servers started with the given parameters.
+   * @param executionParameters the parameters needed to start the lsp server
+   *                            through stdio
+   * @param serverLimits        the limits, or null to use the default ones
+   */
+  public static void setLimits(List<String> executionParameters,
+      LspResourceLimits serverLimits) {
+    if (serverLimits == null) {
+      limits.remove(executionParameters);
+    } else {
+      limits.put(new ArrayList<>(executionParameters), serverLimits);
+    }
+  }
+
+  /**
+   * Gets the limits of the servers started with the given parameters.
+   * @return the limits set for the parameters, or {@link LspResourceLimits#DEFAULT}
+   */
+  public static LspResourceLimits getLimits(List<String> executionParameters) {
+    return limits.getOrDefault(executionParameters, LspResourceLimits.DEFAULT);
+  }
+
+  static synchronized void watch(CommonLspProxy proxy) {
+    servers.putIfAbsent(proxy, new WatchedServer());
+    if (samplingTask == null) {
+      if (scheduler == null) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "Lsp server watchdog");
+          thread.setDaemon(true);
+          return thread;
+        });
+      }
+      samplingTask = scheduler.scheduleWithFixedDelay(LspServerWatchdog::sampleAll, INTERVAL,
+          INTERVAL, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  static synchronized void unwatch(CommonLspProxy proxy) {
+    servers.remove(proxy);
+    if (servers.isEmpty() && samplingTask != null) {
+      samplingTask.cancel(false);
+      samplingTask = null;
+    }
+  }
+
+  private static void sampleAll() {
+    for (Map.Entry<CommonLspProxy, WatchedServer> entry : servers.entrySet()) {
+      try {
+        check(entry.getKey(), entry.getValue());
+      } catch (RuntimeException e) {
+        logger.error("Error sampling a language server", e);
+      }
+    }
+  }
+
+  private static void check(CommonLspProxy proxy, WatchedServer watched) {
+    ProcessHandle root = proxy.getProcessHandle();
+    if (root == null || !root.isAlive()) {
+      return;
+    }
+    LspResourceSample sample = watched.sample(root);
+    proxy.setResourceSample(sample);
+    LspResourceLimits serverLimits = getLimits(proxy.getExecutionParameters());
+    if (!serverLimits.isExceededBy(sample)) {
+      watched.exceeded = 0;
+      if (watched.throttled) {
+        watched.throttled = false;
+        proxy.setThrottled(false);
+        logger.info("The language server " + root.pid() + " is back under its limits");
+      }
+      return;
+    }
+    if (++watched.exceeded < serverLimits.getSamples()) {
+      return;
+    }
+    watched.exceeded = 0;
+    if (serverLimits.getPolicy() == LspResourceLimits.Policy.RESTART) {
+      logger.warn("Restarting the language server " + root.pid() + ", it exceeded its limits: "
+          + sample);
+      CompletableFuture.runAsync(proxy::restartServer);
+    } else if (!watched.throttled) {
+      logger.warn("Throttling the language server " + root.pid()
+          + ", it exceeded its limits: " + sample);
+      watched.throttled = true;
+      proxy.setThrottled(true);
+    }
+  }
+
+  /**
+   * Reads the resident memory of a process from {@code /proc}.
+   * @return the amount of bytes, 0 if the process already finished, or -1 if
+   *         {@code /proc} is not available
+   */
+  private static long readResidentMemory(long pid) {
+    if (!Files.isDirectory(PROC)) {
+      return -1;
+    }
+    try {
+      for (String line : Files.readAllLines(PROC.resolve(pid + "/status"))) {
+        if (line.startsWith(RESIDENT_MEMORY_FIELD)) {
+          String kilobytes = line.substring(RESIDENT_MEMORY_FIELD.length()).trim().split("\\s+")[0];
+          return Long.parseLong(kilobytes) * 1024;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // The process finished meanwhile
+    }
+    return 0;
+  }
+
+  private static class WatchedServer {
+    private long rootPid = -1;
+    private long lastCpuTime = 0;
+    private long lastTime = 0;
+    private int exceeded = 0;
+    private boolean throttled = false;
+
+    private LspResourceSample sample(ProcessHandle root) {
+      List<ProcessHandle> tree = new ArrayList<>();
+      tree.add(root);
+      root.descendants().forEach(tree::add);
+      long cpuTime = 0;
+      long memory = 0;
+      for (ProcessHandle handle : tree) {
+        cpuTime += handle.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+        long processMemory = readResidentMemory(handle.pid());
+        memory = (processMemory < 0 || memory < 0) ? -1 : memory + processMemory;
+      }
+      long now = System.nanoTime();
+      double cpuLoad = 0;
+      // The first sample of a process has nothing to compare with
+      if (root.pid() == rootPid && now > lastTime) {
+        cpuLoad = Math.max(0, cpuTime - lastCpuTime) / (double) (now - lastTime);
+      }
+      rootPid = root.pid();
+      lastCpuTime = cpuTime;
+      lastTime = now;
+      return new LspResourceSample(System.currentTimeMillis(), memory, cpuLoad, tree.size());
+    }
+  }
+
+}
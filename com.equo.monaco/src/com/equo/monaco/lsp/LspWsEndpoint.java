@@ -0,0 +1,178 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
+
+/**
+ * The websocket server shared by all the lsp proxies. The editors connect to
+ * {@code ws://127.0.0.1:PORT/lsp/<id>}, and the id in the path selects the
+ * proxy that handles the connection.
+ */
+public class LspWsEndpoint extends WebSocketServer {
+  private static Logger logger = LoggerFactory.getLogger(LspWsEndpoint.class);
+  private static final String PATH_PREFIX = "/lsp/";
+  private static final long START_TIMEOUT = 10000;
+
+  private static LspWsEndpoint instance = null;
+
+  private final Map<String, LspWsProxy> proxies = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private LspWsEndpoint() {
+    super(new InetSocketAddress("127.0.0.1", 0));
+    setReuseAddr(true);
+  }
+
+  /**
+   * Gets the endpoint shared by all the proxies, starting it if needed.
+   * @return the started endpoint
+   */
+  public static synchronized LspWsEndpoint getInstance() {
+    if (instance == null) {
+      instance = new LspWsEndpoint();
+      instance.start();
+      try {
+        if (!instance.started.await(START_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          logger.error("Timeout starting the lsp websocket endpoint");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Stops the shared endpoint, if it was started.
+   */
+  public static synchronized void stopInstance() {
+    if (instance != null) {
+      try {
+        instance.stop();
+      } catch (IOException | InterruptedException e) {
+        logger.error("Error stopping the lsp websocket endpoint", e);
+      }
+      instance = null;
+    }
+  }
+
+  /**
+   * Gets a new id to register a proxy.
+   * @return an id not used by any other proxy
+   */
+  public String newProxyId() {
+    return Long.toString(nextId.getAndIncrement());
+  }
+
+  /**
+   * Gets the path that the editors use to connect to the proxy with the given
+   * id.
+   * @param  id the proxy id
+   * @return    the path of the proxy
+   */
+  public static String getPath(String id) {
+    return PATH_PREFIX + id;
+  }
+
+  public void register(String id, LspWsProxy proxy) {
+    proxies.put(id, proxy);
+  }
+
+  public void unregister(String id, LspWsProxy proxy) {
+    proxies.remove(id, proxy);
+  }
+
+  private LspWsProxy getProxy(String resource) {
+    if (resource == null || !resource.startsWith(PATH_PREFIX)) {
+      return null;
+    }
+    String id = resource.substring(PATH_PREFIX.length());
+    int end = id.indexOf('?');
+    if (end >= 0) {
+      id = id.substring(0, end);
+    }
+    if (id.endsWith("/")) {
+      id = id.substring(0, id.length() - 1);
+    }
+    return proxies.get(id);
+  }
+
+  @Override
+  public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    LspWsProxy proxy = getProxy(handshake.getResourceDescriptor());
+    if (proxy == null) {
+      // The editor will retry while the proxy is not started
+      conn.close(CloseFrame.TRY_AGAIN_LATER, "Unknown lsp proxy");
+      return;
+    }
+    conn.setAttachment(proxy);
+    proxy.onOpen(conn, handshake);
+  }
+
+  @Override
+  public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    LspWsProxy proxy = conn.getAttachment();
+    if (proxy != null) {
+      proxy.onClose(conn, code, reason, remote);
+    }
+  }
+
+  @Override
+  public void onMessage(WebSocket conn, String message) {
+    LspWsProxy proxy = conn.getAttachment();
+    if (proxy != null) {
+      proxy.onMessage(conn, message);
+    }
+  }
+
+  @Override
+  public void onError(WebSocket conn, Exception ex) {
+    logger.error("Error in lsp websocket endpoint", ex);
+    if (conn == null) {
+      // The server itself failed, so there is no need to wait it to start
+      started.countDown();
+    }
+  }
+
+  @Override
+  public void onStart() {
+    started.countDown();
+  }
+
+}
@@ -25,141 +25,399 @@ package com.equo.monaco.lsp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
-import org.java_websocket.server.WebSocketServer;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
 
 /**
  * This class is in charge for the communication Proxy <-> Editor, which is done
- * with websockets.
+ * with websockets. The connections are accepted by the shared
+ * {@link LspWsEndpoint}, which routes them to this proxy.
+ *
+ * <p>Editors can connect before the language server is started. Their messages
+ * are kept in order and sent once the proxy is connected to the server.
+ *
+ * <p>The proxy is usually connected to the streams of the server process, but
+ * it can use any {@link LspServerChannel}. In that case, the server messages
+ * must be given to {@link #handleServerMessage(String)}.
+ *
+ * <p>If the server is lost, the proxy can be disconnected from it and connected
+ * to a new one while the editors stay connected. The new server is restored to
+ * the state of the previous one before receiving the buffered messages. If the
+ * channel with the server fails, or the server closes the stream where it
+ * writes, the proxy disconnects by itself and calls its server lost handler,
+ * see {@link #setServerLostHandler(Consumer)}.
  */
-public class LspWsProxy extends WebSocketServer {
-  private static final String CONTENT_LENGTH = "Content-Length: ";
-  private static final int SIZE_STRING_CONTENT_LENGTH = CONTENT_LENGTH.length();
-  private static final int ASCII_0 = 48;
-  private static final int READING_HEADER_STATE = 0;
-  private static final int READING_CONTENT_LENGTH_STATE = 1;
-  private static final int SEARCHING_START_MESSAGE_STATE = 2;
-  private static final int READING_MESSAGE_STATE = 3;
-  private OutputStream streamOut;
-  private Thread redirectThread = null;
-  private ExecutorService executorService = Executors.newCachedThreadPool();
+public class LspWsProxy {
+  private static Logger logger = LoggerFactory.getLogger(LspWsProxy.class);
+  static final String CLIENT_PARAMETER = "client";
+  private static final long JOIN_TIMEOUT = 1000;
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  /**
+   * Maximum amount of editor messages kept while the language server is
+   * starting. Can be changed with the {@code equo.monaco.lsp.startupBufferCapacity}
+   * system property.
+   */
+  public static final int STARTUP_BUFFER_CAPACITY =
+      Integer.getInteger("equo.monaco.lsp.startupBufferCapacity", 10000);
+
+  /**
+   * Size in bytes above which a message of the language server is streamed to
+   * the editors without being decoded. Can be changed with the
+   * {@code equo.monaco.lsp.streamingThreshold} system property.
+   */
+  public static final long STREAMING_THRESHOLD =
+      Long.getLong("equo.monaco.lsp.streamingThreshold", 4L * 1024 * 1024);
+
+  /**
+   * Size in bytes above which a message of the language server is discarded,
+   * answering the request with an error. The streamed messages are read whole
+   * before their id is rewritten, and their frames are queued in the editor
+   * connection, so each may use twice its size in memory while it is sent. Can
+   * be changed with the {@code equo.monaco.lsp.maxMessageSize} system property.
+   */
+  public static final long MAX_MESSAGE_SIZE =
+      Long.getLong("equo.monaco.lsp.maxMessageSize", 64L * 1024 * 1024);
+
+  private LspServerChannel channel = null;
+  private List<String> startupBuffer = new ArrayList<>();
+  private final LspClientMultiplexer multiplexer;
+  private final Map<WebSocket, Boolean> connections = new ConcurrentHashMap<>();
   private final AtomicBoolean finish = new AtomicBoolean(false);
+  private boolean restore = false;
+  private Thread redirectThread = null;
+  private volatile long lastActivity = System.currentTimeMillis();
+  private volatile Consumer<LspServerChannel> serverLostHandler = null;
+  private final LspLargeMessageHandler largeMessageHandler = new LspLargeMessageHandler() {
+    @Override
+    public void handleLargeMessage(byte[] content, int length) {
+      lastActivity = System.currentTimeMillis();
+      multiplexer.handleLargeServerMessage(content, length);
+    }
+
+    @Override
+    public void handleOversizedMessage(LspMessageScanner scanner, long length) {
+      lastActivity = System.currentTimeMillis();
+      boolean answered = multiplexer.handleOversizedServerMessage(scanner);
+      logger.warn("Discarded a language server message of " + length + " bytes"
+          + (answered ? ", the request was answered with an error" : ""));
+    }
+  };
+
+  /**
+   * Creates a proxy not connected to a language server yet.
+   */
+  public LspWsProxy() {
+    this.multiplexer = new LspClientMultiplexer(this::sendToServer);
+  }
 
   /**
    * Parameterized constructor.
    */
-  public LspWsProxy(int port, InputStream streamIn, OutputStream streamOut) {
-    super(new InetSocketAddress(port));
-    this.streamOut = streamOut;
-    redirectThread = new Thread(() -> {
-      int state = 0;
-      int lengthMessage = 0;
-      StringBuilder builderMessage = null;
-      StringBuilder builderHeader = new StringBuilder();
-      int lengthReaded = 0;
+  public LspWsProxy(InputStream streamIn, OutputStream streamOut) {
+    this(streamIn, new LspMessageWriter(streamOut));
+  }
+
+  /**
+   * Parameterized constructor.
+   * @param streamIn the stream where the language server writes its messages
+   * @param writer   the writer used to send the editor messages to the
+   *                 language server
+   */
+  public LspWsProxy(InputStream streamIn, LspMessageWriter writer) {
+    this();
+    connect(streamIn, writer);
+  }
+
+  public void connect(InputStream streamIn, OutputStream streamOut) {
+    connect(streamIn, new LspMessageWriter(streamOut));
+  }
+
+  /**
+   * Connects the proxy to a started language server. The messages that the
+   * editors sent meanwhile are sent in order.
+   * @param streamIn the stream where the language server writes its messages
+   * @param writer   the writer used to send the editor messages to the
+   *                 language server
+   */
+  public void connect(InputStream streamIn, LspMessageWriter writer) {
+    connect(Channels.newChannel(streamIn), writer);
+  }
+
+  /**
+   * Connects the proxy to a started language server. The messages that the
+   * editors sent meanwhile are sent in order.
+   * @param channelIn the channel where the language server writes its messages
+   * @param writer    the writer used to send the editor messages to the
+   *                  language server
+   */
+  public void connect(ReadableByteChannel channelIn, LspMessageWriter writer) {
+    connect(writer);
+    Thread thread = new Thread(() -> {
+      LspMessageReader reader = new LspMessageReader(channelIn, READ_BUFFER_SIZE);
+      reader.setLargeMessageHandler(largeMessageHandler, STREAMING_THRESHOLD, MAX_MESSAGE_SIZE);
       try {
-        while (true) {
-          // Block of read message
-          int readed = streamIn.read();
-          if (finish.get()) {
-            return;
-          }
-          switch (state) {
-            case READING_HEADER_STATE:
-              builderHeader.append((char) readed);
-              final int lastIndexOf = builderHeader.lastIndexOf(CONTENT_LENGTH);
-              if (lastIndexOf >= 0
-                  && lastIndexOf == builderHeader.length() - SIZE_STRING_CONTENT_LENGTH) {
-                state++;
-              }
-              break;
-            case READING_CONTENT_LENGTH_STATE:
-              if ((char) readed == '\r') {
-                state++;
-              } else {
-                lengthMessage = (lengthMessage * 10) + readed - ASCII_0;
-              }
-              break;
-            case SEARCHING_START_MESSAGE_STATE:
-              if ((char) readed == '{') {
-                builderMessage = new StringBuilder(lengthMessage);
-                builderMessage.append((char) readed);
-                state++;
-                lengthReaded++;
-              }
-              break;
-            case READING_MESSAGE_STATE:
-              builderMessage.append((char) readed);
-              if (++lengthReaded == lengthMessage) {
-                broadcast(builderMessage.toString());
-                lengthReaded = 0;
-                lengthMessage = 0;
-                builderHeader = new StringBuilder();
-                state = READING_HEADER_STATE;
-              }
-              break;
-            default:
-              break;
-          }
+        while (!finish.get() && reader.read(this::handleServerMessage)) {
+          // Every complete message is dispatched while reading
         }
       } catch (IOException e) {
-        e.printStackTrace();
+        if (!finish.get()) {
+          logger.warn("The connection with the language server was lost: " + e.getMessage());
+        }
+      }
+      if (!finish.get()) {
+        // The server crashed or closed the connection, its owner decides what to do
+        channelFailed(writer);
       }
     }, "Lsp -> Equo Editor");
-    redirectThread.start();
+    thread.setDaemon(true);
+    synchronized (this) {
+      redirectThread = thread;
+    }
+    thread.start();
+  }
+
+  /**
+   * Connects the proxy to a language server through the given channel. The
+   * messages that the editors sent meanwhile are sent in order.
+   * @param channel the channel used to send the editor messages to the server
+   */
+  public synchronized void connect(LspServerChannel channel) {
+    if (this.channel != null || finish.get()) {
+      throw new IllegalStateException("The proxy was already connected");
+    }
+    if (restore) {
+      // The restored documents already include the changes kept meanwhile
+      startupBuffer.removeIf(LspClientMultiplexer::isDocumentSync);
+      for (String message : multiplexer.getRestoreMessages()) {
+        channel.send(message);
+      }
+      restore = false;
+    }
+    for (String message : startupBuffer) {
+      channel.send(message);
+    }
+    startupBuffer = null;
+    this.channel = channel;
+    channel.setFailureHandler(() -> channelFailed(channel));
+  }
+
+  /**
+   * Sets the handler called when the proxy loses the connection with the
+   * server because its channel failed. The proxy is already disconnected when
+   * it is called, so the owner only needs to connect it to a new server.
+   * @param handler receives the channel that failed, from the thread that
+   *                detected the failure. It must not block, since that thread
+   *                may be the one reading the server messages
+   */
+  public void setServerLostHandler(Consumer<LspServerChannel> handler) {
+    serverLostHandler = handler;
+  }
+
+  private boolean channelFailed(LspServerChannel failed) {
+    if (!disconnect(failed)) {
+      return false;
+    }
+    logger.warn("The connection with the language server failed, the proxy was disconnected");
+    Consumer<LspServerChannel> handler = serverLostHandler;
+    if (handler != null) {
+      handler.accept(failed);
+    }
+    return true;
+  }
+
+  /**
+   * Disconnects the proxy from a language server that was lost. The pending
+   * requests of the editors are cancelled, and their next messages are kept
+   * until the proxy is connected to a new server.
+   */
+  public void disconnect() {
+    disconnect(null);
+  }
+
+  private boolean disconnect(LspServerChannel expected) {
+    synchronized (this) {
+      if (channel == null || finish.get() || (expected != null && channel != expected)) {
+        return false;
+      }
+      channel.close();
+      channel = null;
+      startupBuffer = new ArrayList<>();
+      restore = true;
+    }
+    multiplexer.serverLost();
+    return true;
+  }
+
+  public synchronized boolean isConnected() {
+    return channel != null;
+  }
+
+  /**
+   * Asks the language server to finish, sending the {@code shutdown} request
+   * and then the {@code exit} notification. The server process is not waited.
+   * @param  timeout milliseconds to wait the response to the shutdown request
+   * @return         true if the server answered the shutdown request
+   */
+  public boolean shutdownServer(long timeout) {
+    if (!isConnected()) {
+      return false;
+    }
+    boolean answered = false;
+    if (multiplexer.getInitializeResult() != null) {
+      try {
+        multiplexer.shutdownServer().get(timeout, TimeUnit.MILLISECONDS);
+        answered = true;
+      } catch (TimeoutException | ExecutionException e) {
+        logger.warn("The language server didn't answer the shutdown request");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    multiplexer.exitServer();
+    return answered;
   }
 
-  @Override
-  public void stop() throws IOException, InterruptedException {
+  /**
+   * Stops the proxy and closes the connections of its editors. Waits a bounded
+   * time for the thread that reads the server messages to finish, which
+   * happens once the server closes its stream.
+   */
+  public void stop() {
     finish.set(true);
-    super.stop();
-    executorService.shutdown();
+    for (WebSocket conn : connections.keySet()) {
+      conn.close(CloseFrame.GOING_AWAY);
+    }
+    connections.clear();
+    multiplexer.getDiagnosticsCoalescer().clear();
+    Thread thread;
+    synchronized (this) {
+      if (channel != null) {
+        channel.close();
+      }
+      startupBuffer = null;
+      thread = redirectThread;
+    }
+    if (thread != null && thread != Thread.currentThread()) {
+      try {
+        thread.join(JOIN_TIMEOUT);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (thread.isAlive()) {
+        logger.error("The thread reading the language server messages didn't finish in "
+            + JOIN_TIMEOUT + "ms after the proxy was stopped");
+      }
+    }
   }
 
-  @Override
+  /**
+   * Called by the endpoint when an editor connects to this proxy.
+   * @param conn      the editor connection
+   * @param handshake the handshake of the connection
+   */
   public void onOpen(WebSocket conn, ClientHandshake handshake) {
-    // TODO Auto-generated method stub
+    connections.put(conn, Boolean.TRUE);
+    multiplexer.clientConnected(conn, getClientId(handshake.getResourceDescriptor()));
+  }
 
+  /**
+   * Gets the client id sent by an editor in the query of the url used to
+   * connect to the proxy.
+   * @param  resource the requested resource. Example: /lsp/1?client=editor1
+   * @return          the client id, or null if it was not sent
+   */
+  public static String getClientId(String resource) {
+    int queryStart = (resource != null) ? resource.indexOf('?') : -1;
+    if (queryStart < 0) {
+      return null;
+    }
+    for (String parameter : resource.substring(queryStart + 1).split("&")) {
+      if (parameter.startsWith(CLIENT_PARAMETER + "=")) {
+        return parameter.substring(CLIENT_PARAMETER.length() + 1);
+      }
+    }
+    return null;
   }
 
-  @Override
+  /**
+   * Called by the endpoint when an editor connection is closed.
+   */
   public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-    // TODO Auto-generated method stub
-
+    connections.remove(conn);
+    multiplexer.clientDisconnected(conn);
   }
 
-  @Override
+  /**
+   * Called by the endpoint when an editor sends a message to this proxy.
+   */
   public void onMessage(WebSocket conn, String message) {
-    executorService.submit(() -> {
-      String fullMessage = CONTENT_LENGTH + message.getBytes().length + "\r\n\r\n" + message;
-      final byte[] bytes = fullMessage.getBytes();
-      try {
-        synchronized (streamOut) {
-          streamOut.write(bytes);
-          streamOut.flush();
-        }
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    });
+    lastActivity = System.currentTimeMillis();
+    multiplexer.handleClientMessage(conn, message);
   }
 
-  @Override
-  public void onError(WebSocket conn, Exception ex) {
-    // TODO Auto-generated method stub
+  /**
+   * Sends a message of the language server to the editors.
+   */
+  public void handleServerMessage(String message) {
+    lastActivity = System.currentTimeMillis();
+    multiplexer.handleServerMessage(message);
+  }
 
+  /**
+   * Gets the last time a message passed through the proxy.
+   * @return the time in milliseconds since the epoch
+   */
+  public long getLastActivity() {
+    return lastActivity;
   }
 
-  @Override
-  public void onStart() {
-    // TODO Auto-generated method stub
+  private void sendToServer(String message) {
+    LspServerChannel currentChannel;
+    synchronized (this) {
+      currentChannel = channel;
+      if (currentChannel == null) {
+        if (startupBuffer != null && startupBuffer.size() < STARTUP_BUFFER_CAPACITY) {
+          startupBuffer.add(message);
+        } else if (startupBuffer != null) {
+          logger.warn("The language server is still starting, an editor message was discarded");
+        }
+        return;
+      }
+    }
+    if (!currentChannel.send(message) && channelFailed(currentChannel)) {
+      // Kept for the next server, the documents are restored with their changes
+      sendToServer(message);
+    }
+  }
+
+  /**
+   * Gets the writer used to send messages to the language server.
+   * @return the writer, or null if the proxy is not connected to the streams
+   *         of a server
+   */
+  public synchronized LspMessageWriter getWriter() {
+    return (channel instanceof LspMessageWriter) ? (LspMessageWriter) channel : null;
+  }
 
+  public LspClientMultiplexer getMultiplexer() {
+    return multiplexer;
   }
 
 }
@@ -0,0 +1,206 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.equo.logging.client.api.Logger;
+import com.equo.logging.client.api.LoggerFactory;
+
+/**
+ * Lsp Proxy that connects to a language server listening on a TCP socket. The
+ * server is not started nor stopped by the proxy, it can be a long-lived server
+ * shared by several applications. Stopping the proxy only closes its
+ * connection.
+ *
+ * <p>If the connection is lost, the proxy connects again with the same backoff
+ * used by {@link CommonLspProxy} to restart crashed servers, and the new
+ * connection is restored to the state the editors expect.
+ */
+public class SocketLspProxy extends LspProxy {
+  private static Logger logger = LoggerFactory.getLogger(SocketLspProxy.class);
+
+  /**
+   * Milliseconds to wait the connection with the server. Can be changed with
+   * the {@code equo.monaco.lsp.socketConnectTimeout} system property.
+   */
+  public static final int CONNECT_TIMEOUT =
+      Integer.getInteger("equo.monaco.lsp.socketConnectTimeout", 10000);
+
+  private final String host;
+  private final int port;
+  private SocketChannel channel;
+  private volatile boolean stopped = false;
+  private boolean reconnectPending = false;
+  private long connectTime;
+  private int consecutiveFailures = 0;
+  private int reconnects = 0;
+
+  /**
+   * Parameterized constructor.
+   * @param host the host where the server listens
+   * @param port the port where the server listens
+   */
+  public SocketLspProxy(String host, int port) {
+    super();
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public synchronized void startServer() {
+    if (isRunning() || reconnectPending) {
+      return;
+    }
+    stopped = false;
+    connect();
+  }
+
+  private boolean connect() {
+    try {
+      channel = openChannel();
+      connectTime = System.currentTimeMillis();
+      startProxy(channel);
+      return true;
+    } catch (IOException e) {
+      logger.error("Error connecting to the language server at " + getAddress(), e);
+      closeChannel();
+      return false;
+    }
+  }
+
+  /**
+   * The connection was closed or failed, so the proxy connects again. The
+   * losses of a connection already closed or replaced are ignored.
+   */
+  @Override
+  protected void serverLost(LspServerChannel lost) {
+    if (stopped || !isServerChannel(lost)) {
+      return;
+    }
+    // Connecting or stopping may hold the lock, and the reader must not wait
+    CompletableFuture.runAsync(() -> reconnectLost(lost));
+  }
+
+  private synchronized void reconnectLost(LspServerChannel lost) {
+    if (stopped || !isServerChannel(lost)) {
+      return;
+    }
+    closeChannel();
+    if (System.currentTimeMillis() - connectTime >= CommonLspProxy.STABLE_TIME) {
+      consecutiveFailures = 0;
+    }
+    logger.warn("Lost the connection with the language server at " + getAddress()
+        + ", connecting again");
+    scheduleReconnect();
+  }
+
+  private synchronized void scheduleReconnect() {
+    if (consecutiveFailures >= CommonLspProxy.MAX_RESTARTS) {
+      logger.error("The connection with the language server at " + getAddress() + " failed "
+          + consecutiveFailures + " times in a row, it won't be connected again");
+      return;
+    }
+    long delay = Math.min(CommonLspProxy.MAX_RESTART_DELAY,
+        CommonLspProxy.RESTART_DELAY << Math.min(consecutiveFailures, 20));
+    consecutiveFailures++;
+    reconnectPending = true;
+    CompletableFuture.runAsync(this::reconnect,
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+  }
+
+  private synchronized void reconnect() {
+    reconnectPending = false;
+    if (stopped || isRunning()) {
+      return;
+    }
+    reconnects++;
+    if (!connect()) {
+      scheduleReconnect();
+    }
+  }
+
+  /**
+   * Opens a blocking channel connected to the server.
+   * @return             the connected channel
+   * @throws IOException if the connection could not be made
+   */
+  protected SocketChannel openChannel() throws IOException {
+    SocketChannel socketChannel = SocketChannel.open();
+    try {
+      socketChannel.socket().setTcpNoDelay(true);
+      socketChannel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+      return socketChannel;
+    } catch (IOException e) {
+      socketChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Gets a description of the address of the server, used in the log.
+   */
+  protected String getAddress() {
+    return host + ":" + port;
+  }
+
+  @Override
+  public synchronized void stopServer() {
+    stopped = true;
+    reconnectPending = false;
+    // Closed first, so the thread reading the server ends and can be joined
+    closeChannel();
+    super.stopServer();
+  }
+
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.error("Error closing the connection with the language server", e);
+      }
+      channel = null;
+    }
+  }
+
+  /**
+   * Whether the proxy has an open connection with the server.
+   */
+  public synchronized boolean isRunning() {
+    return channel != null && channel.isConnected();
+  }
+
+  /**
+   * Gets the amount of times the proxy connected again to the server.
+   * @return the amount of reconnections
+   */
+  public synchronized int getReconnects() {
+    return reconnects;
+  }
+
+}
@@ -0,0 +1,83 @@
+/****************************************************************************
+**
+** Copyright (C) 2021 Equo
+**
+** This file is part of Equo Framework.
+**
+** Commercial License Usage
+** Licensees holding valid commercial Equo licenses may use this file in
+** accordance with the commercial license agreement provided with the
+** Software or, alternatively, in accordance with the terms contained in
+** a written agreement between you and Equo. For licensing terms
+** and conditions see https://www.equoplatform.com/terms.
+**
+** GNU General Public License Usage
+** Alternatively, this file may be used under the terms of the GNU
+** General Public License version 3 as published by the Free Software
+** Foundation. Please review the following
+** information to ensure the GNU General Public License requirements will
+** be met: https://www.gnu.org/licenses/gpl-3.0.html.
+**
+****************************************************************************/
+
+package com.equo.monaco.lsp;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Lsp Proxy that connects to a language server listening on a Unix domain
+ * socket. These sockets are supported since Java 16, on older versions the
+ * proxy fails to connect.
+ */
+public class UnixSocketLspProxy extends SocketLspProxy {
+  private final String socketPath;
+
+  /**
+   * Parameterized constructor.
+   * @param socketPath the path of the socket file where the server listens
+   */
+  public UnixSocketLspProxy(String socketPath) {
+    super(null, -1);
+    this.socketPath = socketPath;
+  }
+
+  /**
+   * {@inheritDoc} The Unix domain socket classes are used through reflection,
+   * since they are not available in the Java version targeted by the bundle.
+   */
+  @Override
+  protected SocketChannel openChannel() throws IOException {
+    SocketAddress address;
+    SocketChannel socketChannel;
+    try {
+      address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+          .getMethod("of", String.class).invoke(null, socketPath);
+      ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+      socketChannel = (SocketChannel) SocketChannel.class
+          .getMethod("open", ProtocolFamily.class).invoke(null, unix);
+    } catch (InvocationTargetException e) {
+      throw (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+          : new IOException(e.getCause());
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      throw new IOException("Unix domain sockets require Java 16 or newer", e);
+    }
+    try {
+      socketChannel.connect(address);
+      return socketChannel;
+    } catch (IOException e) {
+      socketChannel.close();
+      throw e;
+    }
+  }
+
+  @Override
+  protected String getAddress() {
+    return socketPath;
+  }
+
+}